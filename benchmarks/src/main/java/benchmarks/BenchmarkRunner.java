@@ -0,0 +1,30 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler (allocation rate per operation, GC counts and times next to the timings),
+ * writing the results to jmh-result.json as well. Same as running benchmarks.jar with -prof gc -rf json.
+ * <p>
+ * Arguments: a regex of the benchmarks to run (all of them if there's none)
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include((args.length > 0) ? args[0] : "benchmarks\\..*")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json")
+                // a fixed heap, so GC numbers from different machines can be compared
+                .jvmArgsAppend("-Xms2g", "-Xmx2g")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,104 @@
+package benchmarks;
+
+import filehandling.HashCacheManager;
+import imaging.sampler.FingerprintConfig;
+import imaging.sampler.Sampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Saving a corpus' fingerprints to a fresh cache, and opening a saved cache and loading every one back. Single shot:
+ * each save needs an empty cache folder, which can't be set up without also timing it at any finer grain.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CacheBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int corpusSize;
+
+    private final FingerprintConfig fingerprintConfig = FingerprintConfig.exact(10, 10);
+
+    private List<Sampler> samplers;
+
+    // Holds a cache with the whole corpus, for loading
+    private Path savedFolder;
+
+    // A new empty one for every save
+    private Path saveFolder;
+    private HashCacheManager saveCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        samplers = SyntheticImages.samplers(SyntheticImages.fingerprints(corpusSize, fingerprintConfig, 1), 2);
+
+        savedFolder = Files.createTempDirectory("cache-benchmark");
+        try (HashCacheManager cache = new HashCacheManager(savedFolder.toString())) {
+            samplers.forEach(cache::cache);
+            cache.saveCache();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpSave() throws IOException {
+        saveFolder = Files.createTempDirectory("cache-benchmark");
+        saveCache = new HashCacheManager(saveFolder.toString());
+        samplers.forEach(saveCache::cache);
+    }
+
+    @Benchmark
+    public void save() {
+        saveCache.saveCache();
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) {
+        try (HashCacheManager cache = new HashCacheManager(savedFolder.toString())) {
+            for (Sampler sampler : samplers) {
+                blackhole.consume(cache.loadCachedSampler(sampler.getFileMdHash(), fingerprintConfig));
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownSave() throws IOException {
+        saveCache.close();
+        delete(saveFolder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(savedFolder);
+    }
+
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
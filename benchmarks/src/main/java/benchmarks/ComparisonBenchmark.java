@@ -0,0 +1,79 @@
+package benchmarks;
+
+import imaging.sampler.Fingerprint;
+import imaging.sampler.FingerprintConfig;
+import imaging.scoring.ComparisonScorer;
+import imaging.scoring.distance.DistanceKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring one pair of fingerprints, cycling through a corpus so the data isn't all in L1
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ComparisonBenchmark {
+
+    @Param({"1000", "100000"})
+    public int corpusSize;
+
+    @Param({"10", "32"})
+    public int accuracy;
+
+    // Also vector on Java 16+, with -p kernel=vector -jvmArgsAppend --add-modules=jdk.incubator.vector
+    @Param({"scalar", "swar"})
+    public String kernel;
+
+    private Fingerprint[] fingerprints;
+    private ComparisonScorer comparisonScorer;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        List<Fingerprint> corpus = SyntheticImages.fingerprints(corpusSize,
+                FingerprintConfig.exact(accuracy, accuracy), 1);
+        fingerprints = corpus.toArray(new Fingerprint[0]);
+        comparisonScorer = new ComparisonScorer(DistanceKernels.forName(kernel));
+    }
+
+    @Benchmark
+    public int differenceScore() {
+        return comparisonScorer.getDifferenceScore(left(), right());
+    }
+
+    @Benchmark
+    public int comparisonScore() {
+        return comparisonScorer.getComparisonScore(left(), right());
+    }
+
+    // Neighbours in the corpus are mostly near duplicates, so give up early like the index searches do
+    @Benchmark
+    public int comparisonScoreWithLimit() {
+        return comparisonScorer.getComparisonScore(left(), right(), 100);
+    }
+
+    private Fingerprint left() {
+        next = (next + 1 < fingerprints.length - 1) ? next + 1 : 0;
+        return fingerprints[next];
+    }
+
+    private Fingerprint right() {
+        return fingerprints[next + 1];
+    }
+}
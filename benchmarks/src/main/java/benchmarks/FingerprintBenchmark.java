@@ -0,0 +1,97 @@
+package benchmarks;
+
+import imaging.sampler.Fingerprint;
+import imaging.sampler.FingerprintConfig;
+import imaging.sampler.Sampler;
+import imaging.scoring.ImageNoiseScorer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fingerprinting and noise scoring of one decoded image (decoding itself isn't measured)
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FingerprintBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Image {
+
+        // 640x480 is about what subsampled decoding hands over, 4000x3000 a photo decoded at full size
+        @Param({"640x480", "4000x3000"})
+        public String size;
+
+        // Decoded raster layouts, see imaging.raster.RasterReader
+        @Param({"3BYTE_BGR", "INT_RGB", "BYTE_GRAY"})
+        public String layout;
+
+        private final File file = new File("synthetic.jpg");
+        private BufferedImage image;
+        private Sampler sampler;
+
+        @Setup
+        public void setUp() {
+            String[] dimensions = size.split("x");
+            image = SyntheticImages.image(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+                    getImageType(layout), 1);
+            sampler = new Sampler(file, image);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Config {
+
+        // Exact block averages, or this many random samples per block
+        @Param({"0", "100"})
+        public int passes;
+
+        private FingerprintConfig fingerprintConfig;
+
+        @Setup
+        public void setUp() {
+            fingerprintConfig = new FingerprintConfig(10, 10, passes);
+        }
+    }
+
+    @Benchmark
+    public Fingerprint fingerprint(Image image, Config config) {
+        // a new sampler every time, the old one has its fingerprint cached
+        Sampler fresh = new Sampler(image.file, image.image);
+        fresh.setFileMdHash(42);
+        return fresh.getFingerprint(config.fingerprintConfig);
+    }
+
+    @Benchmark
+    public double noiseScore(Image image) {
+        return ImageNoiseScorer.getImageNoiseScore(image.sampler);
+    }
+
+    private static int getImageType(String layout) {
+        switch (layout) {
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "BYTE_GRAY":
+                return BufferedImage.TYPE_BYTE_GRAY;
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+    }
+}
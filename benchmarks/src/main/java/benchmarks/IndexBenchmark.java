@@ -0,0 +1,114 @@
+package benchmarks;
+
+import imaging.grouping.DuplicateGroup;
+import imaging.grouping.DuplicateGrouper;
+import imaging.index.VantagePointTree;
+import imaging.sampler.Fingerprint;
+import imaging.sampler.FingerprintConfig;
+import imaging.sampler.Sampler;
+import imaging.scoring.BoundedScoreHeap;
+import imaging.scoring.ComparisonScorer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The comparison stage after fingerprinting: building the metric index, nearest neighbour queries, keeping the best
+ * scores per image, and merging the duplicate pairs into groups.
+ * <p>
+ * (These replaced the sorted pair list and the bidirectional pair trimming, which is why those aren't here.)
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexBenchmark {
+
+    // Nearest images kept per image, ApplicationConfig.EXPECT_MAX_DUPLICATES
+    private static final int K = 4;
+
+    @Param({"1000", "10000", "100000"})
+    public int corpusSize;
+
+    private List<Fingerprint> fingerprints;
+    private List<Sampler> samplers;
+    private ComparisonScorer comparisonScorer;
+    private VantagePointTree tree;
+
+    // Scores offered to a heap, and duplicate pairs (left, right, score) as the index finds them
+    private int[] scores;
+    private int[] pairs;
+
+    private int nextQuery = 0;
+
+    @Setup
+    public void setUp() {
+        fingerprints = SyntheticImages.fingerprints(corpusSize, FingerprintConfig.exact(10, 10), 1);
+        samplers = SyntheticImages.samplers(fingerprints, 2);
+        comparisonScorer = new ComparisonScorer();
+        tree = new VantagePointTree(fingerprints, comparisonScorer);
+
+        SplittableRandom random = new SplittableRandom(3);
+        scores = new int[corpusSize];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextInt(10_000);
+        }
+
+        // every image paired with the next one in its cluster, and a few with any other image
+        pairs = new int[corpusSize * 3];
+        for (int i = 0; i < corpusSize; i++) {
+            int cluster = i - (i % SyntheticImages.CLUSTER_SIZE);
+            int partner = cluster + (((i % SyntheticImages.CLUSTER_SIZE) + 1) % SyntheticImages.CLUSTER_SIZE);
+
+            pairs[i * 3] = i;
+            pairs[(i * 3) + 1] = (random.nextInt(100) == 0) ? random.nextInt(corpusSize)
+                    : Math.min(partner, corpusSize - 1);
+            pairs[(i * 3) + 2] = random.nextInt(200);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public VantagePointTree buildIndex() {
+        return new VantagePointTree(fingerprints, comparisonScorer);
+    }
+
+    @Benchmark
+    public BoundedScoreHeap nearest() {
+        nextQuery = (nextQuery + 1) % corpusSize;
+        return tree.getNearest(nextQuery, K);
+    }
+
+    // A corpus' worth of scores through one heap, as a full scan for one image would
+    @Benchmark
+    public BoundedScoreHeap boundedScoreHeap() {
+        BoundedScoreHeap heap = new BoundedScoreHeap(K);
+        for (int id = 0; id < scores.length; id++) {
+            heap.offer(id, scores[id]);
+        }
+        return heap;
+    }
+
+    @Benchmark
+    public List<DuplicateGroup> groupDuplicates() {
+        DuplicateGrouper grouper = new DuplicateGrouper(corpusSize);
+        for (int i = 0; i < pairs.length; i += 3) {
+            grouper.accept(pairs[i], pairs[i + 1], pairs[i + 2]);
+        }
+        return grouper.getGroups(samplers);
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks;
+
+import imaging.sampler.Fingerprint;
+import imaging.sampler.FingerprintConfig;
+import imaging.sampler.Sampler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Images and fingerprints made up from a seed, so every run (and every machine) benchmarks the same data.
+ * <p>
+ * Corpora come in clusters of near duplicates, the way real folders do, so the comparisons and groupings have
+ * something to find.
+ */
+final class SyntheticImages {
+
+    // Images per cluster of near duplicates, and how far their blocks stray from the cluster's
+    static final int CLUSTER_SIZE = 3;
+    private static final int DUPLICATE_NOISE = 6;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Smooth gradients with some grain on top, a bit like a photo
+     */
+    static BufferedImage image(int width, int height, int imageType, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int redPhase = random.nextInt(256);
+        int greenPhase = random.nextInt(256);
+        int bluePhase = random.nextInt(256);
+
+        BufferedImage image = new BufferedImage(width, height, imageType);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int grain = random.nextInt(16);
+                int red = (redPhase + (x * 255 / width) + grain) & 0xFF;
+                int green = (greenPhase + (y * 255 / height) + grain) & 0xFF;
+                int blue = (bluePhase + ((x + y) * 127 / (width + height)) + grain) & 0xFF;
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    static List<Fingerprint> fingerprints(int count, FingerprintConfig config, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int blockBytes = config.getBlockCount() * Fingerprint.CHANNELS;
+
+        List<Fingerprint> fingerprints = new ArrayList<>(count);
+        byte[] cluster = new byte[blockBytes];
+        long clusterHash = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (i % CLUSTER_SIZE == 0) {
+                for (int b = 0; b < blockBytes; b++) {
+                    cluster[b] = (byte) random.nextInt(256);
+                }
+                clusterHash = random.nextLong();
+            }
+
+            byte[] blocks = new byte[blockBytes];
+            for (int b = 0; b < blockBytes; b++) {
+                int value = (cluster[b] & 0xFF) + random.nextInt(-DUPLICATE_NOISE, DUPLICATE_NOISE + 1);
+                blocks[b] = (byte) Math.max(0, Math.min(255, value));
+            }
+
+            double noiseScore = 10 + random.nextDouble(40);
+            long perceptualHash = clusterHash ^ (1L << random.nextInt(64));
+            fingerprints.add(new Fingerprint(config, blocks, noiseScore, perceptualHash));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Samplers as they come out of the cache, with made up files and hashes
+     */
+    static List<Sampler> samplers(List<Fingerprint> fingerprints, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+
+        List<Sampler> samplers = new ArrayList<>(fingerprints.size());
+        for (int i = 0; i < fingerprints.size(); i++) {
+            Sampler sampler = new Sampler(fingerprints.get(i));
+            sampler.setFile(new File("image" + i + ".jpg"));
+            sampler.setFileMdHash(random.nextLong());
+            samplers.add(sampler);
+        }
+        return samplers;
+    }
+}
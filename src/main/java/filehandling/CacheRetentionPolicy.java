@@ -0,0 +1,20 @@
+package filehandling;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * How much of the fingerprint cache survives between runs. Entries not seen for {@link #maxAgeDays} expire, and when
+ * there are more than {@link #maxEntries} or they take more than {@link #maxBytes}, the longest unseen ones go first.
+ */
+@Getter
+@AllArgsConstructor
+public class CacheRetentionPolicy {
+
+    public static final CacheRetentionPolicy UNLIMITED =
+            new CacheRetentionPolicy(Integer.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxAgeDays;
+}
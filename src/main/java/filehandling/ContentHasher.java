@@ -0,0 +1,139 @@
+package filehandling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes file contents to 64 bits, either with xxHash64 (fast, the default) or with the first 64 bits of SHA-256
+ * (for when someone could be crafting collisions).
+ */
+public class ContentHasher {
+
+    public enum Algorithm {
+        XXHASH64,
+        SHA256
+    }
+
+    // How much of each end of a file hashEdges reads
+    public static final int EDGE_SIZE = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Algorithm algorithm;
+
+    public ContentHasher(Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return Hash of the whole file
+     */
+    public long hashFile(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            Hash hash = newHash();
+            hashRange(input, 0, input.length(), hash);
+            return hash.getValue();
+        }
+    }
+
+    /**
+     * @return Hash of the file's length plus its first and last {@link #EDGE_SIZE} bytes - cheap to compute,
+     * and files it tells apart certainly differ
+     */
+    public long hashEdges(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long length = input.length();
+
+            Hash hash = newHash();
+            hash.update(longToBytes(length), 0, 8);
+
+            if (length <= 2L * EDGE_SIZE) {
+                hashRange(input, 0, length, hash);
+            } else {
+                hashRange(input, 0, EDGE_SIZE, hash);
+                hashRange(input, length - EDGE_SIZE, EDGE_SIZE, hash);
+            }
+            return hash.getValue();
+        }
+    }
+
+    public long hashBytes(byte[] bytes) {
+        Hash hash = newHash();
+        hash.update(bytes, 0, bytes.length);
+        return hash.getValue();
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private static void hashRange(RandomAccessFile input, long start, long length, Hash hash) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        input.seek(start);
+
+        long remaining = length;
+        while (remaining > 0) {
+            int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("File shrank while it was being hashed");
+            }
+            hash.update(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private Hash newHash() {
+        if (algorithm == Algorithm.SHA256) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                return new Hash() {
+                    @Override
+                    public void update(byte[] bytes, int offset, int length) {
+                        digest.update(bytes, offset, length);
+                    }
+
+                    @Override
+                    public long getValue() {
+                        byte[] sha = digest.digest();
+                        long value = 0;
+                        for (int i = 0; i < 8; i++) {
+                            value = (value << 8) | (sha[i] & 0xFF);
+                        }
+                        return value;
+                    }
+                };
+
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Couldn't get SHA-256 algorithm for file hashing.");
+            }
+        }
+
+        XXHash64 xxHash = new XXHash64();
+        return new Hash() {
+            @Override
+            public void update(byte[] bytes, int offset, int length) {
+                xxHash.update(bytes, offset, length);
+            }
+
+            @Override
+            public long getValue() {
+                return xxHash.getValue();
+            }
+        };
+    }
+
+    private static byte[] longToBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (value >>> (8 * i));
+        }
+        return bytes;
+    }
+
+    private interface Hash {
+        void update(byte[] bytes, int offset, int length);
+
+        long getValue();
+    }
+}
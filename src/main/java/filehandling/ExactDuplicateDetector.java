@@ -0,0 +1,193 @@
+package filehandling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives files content keys: files with identical contents get the same key, any other two files different ones.
+ * Files come in one at a time (it may be called from several threads), and each is read only as far as it takes to
+ * tell it apart from the files keyed before it:
+ * <ol>
+ *     <li>a file with a size no other file has isn't read at all</li>
+ *     <li>same-size files are compared by a hash of their first and last 64KB ({@link ContentHasher#hashEdges})</li>
+ *     <li>only files that still look the same are hashed in full</li>
+ * </ol>
+ * A file's key is its full hash if it was read in full, or else a hash of its stat. A copy takes the key of the file
+ * it copies. Keying by stat needs a trusted {@link FileStatCache} to find the key again next time, without one every
+ * file is just hashed in full.
+ * <p>
+ * With a {@link FileStatCache}, files that haven't changed since they were last keyed aren't read at all.
+ */
+public class ExactDuplicateDetector {
+
+    private final ContentHasher contentHasher;
+
+    // Known keys of unchanged files, null to always hash
+    private final FileStatCache fileStatCache;
+    private final boolean trustFileStats;
+
+    // Every file keyed so far, by size (only when keying by stat)
+    private final Map<Long, List<Keyed>> filesBySize = new ConcurrentHashMap<>();
+
+    /**
+     * @param fileStatCache  Keys given here are recorded to it
+     * @param trustFileStats Reuse the recorded key of files whose stat hasn't changed, false to hash everything in full
+     */
+    public ExactDuplicateDetector(ContentHasher contentHasher, FileStatCache fileStatCache, boolean trustFileStats) {
+        this.contentHasher = contentHasher;
+        this.fileStatCache = fileStatCache;
+        this.trustFileStats = (fileStatCache != null) && trustFileStats;
+    }
+
+    /**
+     * @return The key of a file that hasn't changed since it was last keyed, found without opening it - null if it
+     * would have to be read. The file still needs {@link #getContentKey(File)}, it may be a copy of a file keyed since.
+     */
+    public Long getKnownContentKey(File file) throws IOException {
+        return getRecordedKey(FileStatCache.stat(file));
+    }
+
+    /**
+     * @return The file's content key, see the class comment. A file keyed again (it changed) replaces what was known
+     * about it.
+     */
+    public long getContentKey(File file) throws IOException {
+        // stat before reading, if the file changes in the meantime the next run sees a different stat
+        FileStatCache.FileStat stat = FileStatCache.stat(file);
+        Long known = getRecordedKey(stat);
+        Keyed keyed = new Keyed(file, stat, known);
+
+        if (!trustFileStats) {
+            // copies have the same full hash anyway
+            keyed.key = keyed.getFullHash();
+
+        } else {
+            List<Keyed> sameSize = filesBySize.computeIfAbsent(stat.getSize(), size -> new ArrayList<>());
+            synchronized (sameSize) {
+                sameSize.removeIf(other -> other.file.equals(file));
+
+                Keyed original = findOriginal(keyed, sameSize);
+                if (original != null) {
+                    keyed.key = original.key;
+                } else if (known == null) {
+                    keyed.key = (keyed.fullHash != null)
+                            ? keyed.fullHash
+                            : contentHasher.hashBytes(stat.toBytes());
+                }
+                sameSize.add(keyed);
+            }
+        }
+
+        if ((fileStatCache != null) && ((known == null) || (keyed.key != known))) {
+            fileStatCache.put(stat, keyed.key);
+        }
+        return keyed.key;
+    }
+
+    /**
+     * Forgets a file that's gone, so files keyed later aren't compared with it.
+     */
+    public void forget(File file) {
+        for (List<Keyed> sameSize : filesBySize.values()) {
+            synchronized (sameSize) {
+                sameSize.removeIf(other -> other.file.equals(file));
+            }
+        }
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private Long getRecordedKey(FileStatCache.FileStat stat) {
+        return trustFileStats ? fileStatCache.getContentHash(stat) : null;
+    }
+
+    // The same-size file this one is a copy of, if any (only one file of each key is compared). Two known keys were
+    // already told apart when the later of them was given, a known file is only compared with files keyed since.
+    private Keyed findOriginal(Keyed keyed, List<Keyed> sameSize) throws IOException {
+        boolean small = keyed.stat.getSize() <= 2L * ContentHasher.EDGE_SIZE;
+        Set<Long> compared = new HashSet<>();
+
+        for (Keyed other : sameSize) {
+            if ((keyed.fromStatCache && (other.fromStatCache || (other.key == keyed.key)))
+                    || !compared.add(other.key)) {
+                continue;
+            }
+
+            // small files are read whole by the edge hash anyway, skip straight to the full hash
+            if (!small) {
+                Long otherEdgeHash = other.readEdgeHash();
+                if ((otherEdgeHash == null) || (otherEdgeHash != keyed.getEdgeHash())) {
+                    continue;
+                }
+            }
+
+            Long otherFullHash = other.readFullHash();
+            if ((otherFullHash != null) && (otherFullHash == keyed.getFullHash())) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    // A file and its key, with whatever was read of it along the way
+    private class Keyed {
+        private final File file;
+        private final FileStatCache.FileStat stat;
+
+        // Found by the file stat cache, rather than given while this detector was running
+        private final boolean fromStatCache;
+
+        private long key;
+
+        private Long edgeHash;
+        private Long fullHash;
+
+        private Keyed(File file, FileStatCache.FileStat stat, Long known) {
+            this.file = file;
+            this.stat = stat;
+            this.fromStatCache = known != null;
+            this.key = fromStatCache ? known : 0;
+        }
+
+        private long getEdgeHash() throws IOException {
+            if (edgeHash == null) {
+                edgeHash = contentHasher.hashEdges(file);
+            }
+            return edgeHash;
+        }
+
+        private long getFullHash() throws IOException {
+            if (fullHash == null) {
+                fullHash = contentHasher.hashFile(file);
+            }
+            return fullHash;
+        }
+
+        // Of another file keyed before: null if it changed since (it'll be keyed again) or is gone
+        private Long readEdgeHash() {
+            try {
+                return ((edgeHash != null) || isUnchanged()) ? getEdgeHash() : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private Long readFullHash() {
+            try {
+                return ((fullHash != null) || isUnchanged()) ? getFullHash() : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private boolean isUnchanged() throws IOException {
+            return FileStatCache.stat(file).sameFileAs(stat);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package filehandling;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * Content hashes by file stat (canonical path, size, last modified, file key), so unchanged files don't have to be
+ * read again to find their hash (the key {@link ExactDuplicateDetector} gave them, which isn't always a hash of
+ * everything in the file).
+ * <pre>
+ * header   magic, version, committed length
+ * record   path length, path (UTF-8), size, last modified (ns), file key length, file key (UTF-8), content hash
+ * </pre>
+ * Records are only ever appended, a later record for the same path replaces the earlier one. The whole file is read
+ * on open (streamed, only the stats are kept), and rewritten without the superseded records once they make up most
+ * of it. Records are written through a buffer of {@link #WRITE_CHUNK_SIZE}, however many there are.
+ * <p>
+ * Like any stat based check this trusts that a file which changed also changed its size or modification time,
+ * hash in full when that isn't good enough.
+ */
+public class FileStatCache implements Closeable {
+
+    // ========= CONSTANTS ============================================================================================
+
+    private static final int FILE_MAGIC = 0x49435353;   // "ICSS"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_CHUNK_SIZE = 1024 * 1024;
+
+    // ========= ATTRIBUTES ===========================================================================================
+
+    private final File file;
+    private FileChannel channel;
+    private long committedLength;
+    private long recordCount;
+
+    private final Map<String, FileStat> statsByPath = new ConcurrentHashMap<>();
+
+    // Stats recorded since the last save
+    private final Map<String, FileStat> newStats = new ConcurrentHashMap<>();
+
+    // ========= CONSTRUCTOR ==========================================================================================
+
+    public FileStatCache(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    // ========= API ==================================================================================================
+
+    /**
+     * Reads a file's stat (without opening the file).
+     */
+    public static FileStat stat(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+
+        return new FileStat(file.getCanonicalPath(), attributes.size(),
+                attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), (fileKey != null) ? fileKey.toString() : "",
+                0);
+    }
+
+    /**
+     * @return The content hash recorded for a file with exactly this stat, null if the file is new or changed
+     */
+    public Long getContentHash(FileStat stat) {
+        FileStat known = statsByPath.get(stat.path);
+        return ((known != null) && known.sameFileAs(stat)) ? known.contentHash : null;
+    }
+
+    /**
+     * Records the content hash of a file, along with the stat it had before it was hashed.
+     */
+    public void put(FileStat stat, long contentHash) {
+        FileStat known = statsByPath.get(stat.path);
+        if ((known != null) && known.sameFileAs(stat) && (known.contentHash == contentHash)) {
+            return;
+        }
+
+        FileStat hashed = new FileStat(stat.path, stat.size, stat.lastModified, stat.fileKey, contentHash);
+        statsByPath.put(stat.path, hashed);
+        newStats.put(stat.path, hashed);
+    }
+
+    public int size() {
+        return statsByPath.size();
+    }
+
+    /**
+     * Forgets every file whose content hash isn't kept, rewriting the file if anything was dropped.
+     */
+    public void retainContentHashes(LongPredicate keep) throws IOException {
+        boolean removed = statsByPath.values().removeIf(stat -> !keep.test(stat.contentHash));
+        newStats.values().removeIf(stat -> !keep.test(stat.contentHash));
+
+        if (removed) {
+            compact();
+        }
+    }
+
+    /**
+     * Appends what was recorded since the last save, compacting the file once it's mostly superseded records.
+     */
+    public void save() throws IOException {
+        if (!newStats.isEmpty()) {
+            List<FileStat> stats = new ArrayList<>(newStats.values());
+            append(stats);
+            newStats.clear();
+        }
+
+        if (recordCount > 2L * Math.max(statsByPath.size(), 1024)) {
+            compact();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        statsByPath.clear();
+        recordCount = 0;
+
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(FILE_MAGIC).putInt(VERSION).putLong(HEADER_SIZE).flip();
+            channel.truncate(0);
+            writeFully(header, 0);
+            channel.force(false);
+            committedLength = HEADER_SIZE;
+            return;
+        }
+
+        // not closed, that would close the channel
+        channel.position(0);
+        DataInputStream contents = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE));
+
+        if ((contents.readInt() != FILE_MAGIC) || (contents.readInt() != VERSION)) {
+            // Only hashes live in here, starting over just means hashing everything once more
+            System.out.println("File stat cache " + file + " has an unknown format, rebuilding it.");
+            channel.truncate(0);
+            channel.close();
+            open();
+            return;
+        }
+
+        committedLength = contents.readLong();
+        if ((committedLength < HEADER_SIZE) || (committedLength > channel.size())) {
+            throw new IOException("File stat cache " + file + " is corrupt, committed length " + committedLength
+                    + " but the file has " + channel.size() + " bytes");
+        }
+
+        try {
+            long position = HEADER_SIZE;
+            while (position < committedLength) {
+                byte[] path = readBytes(contents);
+                long size = contents.readLong();
+                long lastModified = contents.readLong();
+                byte[] fileKey = readBytes(contents);
+                long contentHash = contents.readLong();
+
+                String pathString = new String(path, StandardCharsets.UTF_8);
+                statsByPath.put(pathString, new FileStat(pathString, size, lastModified,
+                        new String(fileKey, StandardCharsets.UTF_8), contentHash));
+                recordCount++;
+                position += getRecordSize(path, fileKey);
+            }
+
+        } catch (EOFException e) {
+            throw new IOException("File stat cache " + file + " is truncated", e);
+        }
+    }
+
+    private void append(Collection<FileStat> stats) throws IOException {
+        // anything past the committed length is left over from a save that didn't finish
+        channel.truncate(committedLength);
+
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_CHUNK_SIZE);
+        long end = committedLength;
+        for (FileStat stat : stats) {
+            byte[] path = stat.path.getBytes(StandardCharsets.UTF_8);
+            byte[] fileKey = stat.fileKey.getBytes(StandardCharsets.UTF_8);
+            int bytes = getRecordSize(path, fileKey);
+
+            if (buffer.remaining() < bytes) {
+                end = flush(buffer, end);
+                if (buffer.capacity() < bytes) {
+                    // a path longer than a whole chunk
+                    buffer = ByteBuffer.allocate(bytes);
+                }
+            }
+
+            buffer.putInt(path.length).put(path);
+            buffer.putLong(stat.size).putLong(stat.lastModified);
+            buffer.putInt(fileKey.length).put(fileKey);
+            buffer.putLong(stat.contentHash);
+        }
+        end = flush(buffer, end);
+        channel.force(false);
+
+        committedLength = end;
+        ByteBuffer length = ByteBuffer.allocate(8);
+        length.putLong(committedLength).flip();
+        writeFully(length, 8);
+        channel.force(false);
+
+        recordCount += stats.size();
+    }
+
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".compact");
+        Files.deleteIfExists(compacted.toPath());
+        try (FileStatCache target = new FileStatCache(compacted)) {
+            target.append(statsByPath.values());
+        }
+
+        channel.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+
+    // Writes the buffer at the position, then empties it
+    private long flush(ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        writeFully(buffer, position);
+        position += buffer.limit();
+        buffer.clear();
+        return position;
+    }
+
+    private static int getRecordSize(byte[] path, byte[] fileKey) {
+        return 4 + path.length + 8 + 8 + 4 + fileKey.length + 8;
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * What a file looked like when it was hashed. The file key (inode on unix) is empty where the OS has none.
+     */
+    public static final class FileStat {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final long contentHash;
+
+        private FileStat(String path, long size, long lastModified, String fileKey, long contentHash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.contentHash = contentHash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        boolean sameFileAs(FileStat other) {
+            return (size == other.size) && (lastModified == other.lastModified)
+                    && Objects.equals(fileKey, other.fileKey);
+        }
+
+        // Everything the stat is made of, a hash of it tells this version of this file apart from any other
+        byte[] toBytes() {
+            byte[] path = this.path.getBytes(StandardCharsets.UTF_8);
+            byte[] fileKey = this.fileKey.getBytes(StandardCharsets.UTF_8);
+
+            ByteBuffer bytes = ByteBuffer.allocate(getRecordSize(path, fileKey) - 8);
+            bytes.putInt(path.length).put(path);
+            bytes.putLong(size).putLong(lastModified);
+            bytes.putInt(fileKey.length).put(fileKey);
+            return bytes.array();
+        }
+    }
+}
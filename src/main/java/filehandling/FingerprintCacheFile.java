@@ -0,0 +1,706 @@
+package filehandling;
+
+import imaging.sampler.Fingerprint;
+import imaging.sampler.FingerprintConfig;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary, append-only store of fingerprints by file hash, one per hash and fingerprint config.
+ * <pre>
+ * header   magic, version, committed length          (only the committed length is ever rewritten)
+ * commit   record*, index segment, trailer            (one per save, appended)
+ *          or: seen segment, trailer                  (entries that were used again)
+ *
+ * record   hash, accuracyX, accuracyY, passesPerBlock, noiseScore, perceptualHash, blocks[accuracyX * accuracyY * 3]
+ * index    magic, entry count, previous segment offset, (hash, record offset, packed config, last seen day)*
+ * seen     magic, entry count, previous segment offset, (hash, packed config, last seen day)*
+ * trailer  segment offset, magic
+ * </pre>
+ * Opening only walks the chain of index segments (newest first, so later records win), records are read when they're
+ * asked for (which marks them seen). A save appends the new records plus one segment describing just them, so it costs the same however big
+ * the file already is. Anything past the committed length is a save that didn't finish, and is cut off by the next one.
+ * <p>
+ * Superseded records and many small segments are cleaned up by {@link #compact}, which rewrites the live records
+ * into a new file as they are - dropping those the {@link CacheRetentionPolicy} doesn't keep. Neither saves nor
+ * compacting hold more than {@link #WRITE_CHUNK_SIZE} of the file in memory at once. Last seen days only ever move
+ * forward, so a hash is marked seen at most once a day. Not thread safe for writing, reads may come from any thread.
+ */
+public class FingerprintCacheFile implements Closeable {
+
+    // ========= CONSTANTS ============================================================================================
+
+    private static final int FILE_MAGIC = 0x49435546;       // "ICUF"
+    private static final int SEGMENT_MAGIC = 0x49445853;    // "IDXS"
+    private static final int SEEN_SEGMENT_MAGIC = 0x49445855;   // "IDXU"
+    private static final int TRAILER_MAGIC = 0x49445854;    // "IDXT"
+
+    // Bump when the record layout, or how the fingerprints in it are calculated, changes - older files are dropped
+    // and rebuilt. v4: noise scores on unsigned colour values
+    public static final int VERSION = 4;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 32;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int SEGMENT_ENTRY_SIZE = 28;
+    private static final int SEEN_ENTRY_SIZE = 20;
+    private static final int TRAILER_SIZE = 12;
+
+    // Commits are written through a buffer this big, however many records they have (a record is at most ~30KB)
+    private static final int WRITE_CHUNK_SIZE = 1024 * 1024;
+
+    // ========= ATTRIBUTES ===========================================================================================
+
+    private final File file;
+    private FileChannel channel;
+
+    private long committedLength;
+    private Index index;
+
+    // Entries read since the last save, written as seen by saveSeen()
+    private final Set<Key> readSinceSave = ConcurrentHashMap.newKeySet();
+
+    // Stats for deciding when compacting is worthwhile
+    private int segmentCount;
+    private long recordCount;
+
+    // ========= CONSTRUCTOR ==========================================================================================
+
+    /**
+     * Opens (or creates) the file and reads its index.
+     *
+     * @throws IOException If the file can't be read or is not a fingerprint cache
+     */
+    public FingerprintCacheFile(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    // ========= API ==================================================================================================
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return True if any fingerprint is stored for the hash
+     */
+    public boolean contains(long hash) {
+        return !getConfigs(hash).isEmpty();
+    }
+
+    public boolean contains(long hash, FingerprintConfig config) {
+        return index.find(hash, packConfig(config)) >= 0;
+    }
+
+    /**
+     * @return The configs of every fingerprint stored for the hash (without reading them)
+     */
+    public List<FingerprintConfig> getConfigs(long hash) {
+        List<FingerprintConfig> configs = new ArrayList<>();
+        int mask = index.keys.length - 1;
+        for (int slot = Index.mix(hash) & mask; index.offsets[slot] != 0; slot = (slot + 1) & mask) {
+            if (index.keys[slot] == hash) {
+                configs.add(unpackConfig(index.configs[slot]));
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * @return The fingerprint stored for the hash and config, null if there is none
+     */
+    public Fingerprint read(long hash, FingerprintConfig config) throws IOException {
+        int slot = index.find(hash, packConfig(config));
+        if (slot < 0) {
+            return null;
+        }
+
+        readSinceSave.add(new Key(hash, index.configs[slot]));
+        return readRecord(slot);
+    }
+
+    /**
+     * Appends the fingerprints (replacing any stored for the same hashes) and commits them, as seen today.
+     */
+    public void append(List<Long> hashes, List<Fingerprint> fingerprints) throws IOException {
+        int[] lastSeen = new int[hashes.size()];
+        Arrays.fill(lastSeen, today());
+        append(hashes, fingerprints, lastSeen);
+    }
+
+    /**
+     * Marks what was read since the last call as seen today. Only entries not already seen today are written.
+     */
+    public void saveSeen() throws IOException {
+        int today = today();
+
+        List<Key> unseen = new ArrayList<>();
+        for (Key key : readSinceSave) {
+            int slot = index.find(key.hash, key.config);
+            if ((slot >= 0) && (index.lastSeen[slot] < today)) {
+                unseen.add(key);
+            }
+        }
+        readSinceSave.clear();
+        if (unseen.isEmpty()) {
+            return;
+        }
+
+        ChunkedWriter writer = new ChunkedWriter();
+        long segmentOffset = writer.getPosition();
+        writer.reserve(SEGMENT_HEADER_SIZE)
+                .putInt(SEEN_SEGMENT_MAGIC)
+                .putInt(unseen.size())
+                .putLong(index.lastSegmentOffset);
+        for (Key key : unseen) {
+            writer.reserve(SEEN_ENTRY_SIZE)
+                    .putLong(key.hash)
+                    .putLong(key.config)
+                    .putInt(today);
+        }
+        commit(writer, segmentOffset);
+
+        for (Key key : unseen) {
+            index.lastSeen[index.find(key.hash, key.config)] = today;
+        }
+    }
+
+    /**
+     * @return True if superseded records take up much of the file, or opening it has to walk too many segments
+     */
+    public boolean shouldCompact() {
+        return (segmentCount > 32) || (recordCount > 2L * Math.max(index.size(), 1024));
+    }
+
+    /**
+     * @return The number of entries the policy would evict right now
+     */
+    public int countEvictable(CacheRetentionPolicy policy) {
+        return index.size() - selectRetained(policy, false).length;
+    }
+
+    /**
+     * @return True if there are more entries, or they take more bytes, than the policy allows (expiry aside)
+     */
+    public boolean isOverLimits(CacheRetentionPolicy policy) {
+        long bytes = 0;
+        for (int slot = 0; slot < index.offsets.length; slot++) {
+            if (index.offsets[slot] != 0) {
+                bytes += getEntryBytes(slot);
+            }
+        }
+        return (index.size() > policy.getMaxEntries()) || (bytes > policy.getMaxBytes());
+    }
+
+    /**
+     * Copies the live records the policy keeps into a fresh file with a single index segment, then swaps it in.
+     * Entries are evicted until the cache is a bit under its limits, so the next few runs don't have to compact again.
+     *
+     * @return The number of entries evicted
+     */
+    public int compact(CacheRetentionPolicy policy) throws IOException {
+        int[] retained = selectRetained(policy, true);
+
+        File compacted = new File(file.getPath() + ".compact");
+        Files.deleteIfExists(compacted.toPath());
+        try (FingerprintCacheFile target = new FingerprintCacheFile(compacted)) {
+            target.appendRecordsOf(this, retained);
+        }
+
+        int evicted = index.size() - retained.length;
+
+        channel.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+
+        return evicted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = new Index(1024);
+        segmentCount = 0;
+        recordCount = 0;
+
+        if (channel.size() < HEADER_SIZE) {
+            // new (or never committed) file
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(FILE_MAGIC).putInt(VERSION).putLong(HEADER_SIZE).flip();
+            channel.truncate(0);
+            writeFully(header, 0);
+            channel.force(false);
+            committedLength = HEADER_SIZE;
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+
+        if (header.getInt() != FILE_MAGIC) {
+            throw new IOException(file + " is not a fingerprint cache");
+        }
+        int version = header.getInt();
+        if (version < VERSION) {
+            System.out.println("Fingerprint cache " + file + " has an older format (v" + version + "), rebuilding it.");
+            channel.truncate(0);
+            channel.close();
+            open();
+            return;
+        }
+        if (version > VERSION) {
+            throw new IOException("Fingerprint cache " + file + " was written by a newer version (v" + version + ")");
+        }
+
+        committedLength = header.getLong();
+        if ((committedLength < HEADER_SIZE) || (committedLength > channel.size())) {
+            throw new IOException("Fingerprint cache " + file + " is corrupt, committed length " + committedLength
+                    + " but the file has " + channel.size() + " bytes");
+        }
+
+        if (committedLength > HEADER_SIZE) {
+            readIndex();
+        }
+    }
+
+    private void readIndex() throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(trailer, committedLength - TRAILER_SIZE);
+        trailer.flip();
+
+        long segmentOffset = trailer.getLong();
+        if (trailer.getInt() != TRAILER_MAGIC) {
+            throw new IOException("Fingerprint cache " + file + " is corrupt, no index at the end of the last save");
+        }
+        index.lastSegmentOffset = segmentOffset;
+
+        // Days from seen segments, waiting for the (older) index segment of their entry
+        Map<Key, Integer> seenLater = new HashMap<>();
+
+        // newest segment first, so an older record for the same entry never replaces a newer one
+        while (segmentOffset != 0) {
+            ByteBuffer segmentHeader = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            readFully(segmentHeader, segmentOffset);
+            segmentHeader.flip();
+
+            int magic = segmentHeader.getInt();
+            int entries = segmentHeader.getInt();
+            long previousSegmentOffset = segmentHeader.getLong();
+
+            if (magic == SEEN_SEGMENT_MAGIC) {
+                ByteBuffer segment = ByteBuffer.allocate(entries * SEEN_ENTRY_SIZE);
+                readFully(segment, segmentOffset + SEGMENT_HEADER_SIZE);
+                segment.flip();
+
+                // the records these refer to are in older segments, so just remember the days for now
+                for (int i = 0; i < entries; i++) {
+                    Key key = new Key(segment.getLong(), segment.getLong());
+                    int day = segment.getInt();
+                    Integer known = seenLater.get(key);
+                    if ((known == null) || (known < day)) {
+                        seenLater.put(key, day);
+                    }
+                }
+
+                segmentCount++;
+                segmentOffset = previousSegmentOffset;
+                continue;
+            }
+
+            if (magic != SEGMENT_MAGIC) {
+                throw new IOException("Fingerprint cache " + file + " is corrupt, bad index segment at " + segmentOffset);
+            }
+
+            ByteBuffer segment = ByteBuffer.allocate(entries * SEGMENT_ENTRY_SIZE);
+            readFully(segment, segmentOffset + SEGMENT_HEADER_SIZE);
+            segment.flip();
+
+            for (int i = 0; i < entries; i++) {
+                long hash = segment.getLong();
+                long offset = segment.getLong();
+                long config = segment.getLong();
+                int lastSeen = segment.getInt();
+                if (index.find(hash, config) < 0) {
+                    Integer seen = seenLater.get(new Key(hash, config));
+                    index.put(hash, offset, config, (seen != null) ? Math.max(seen, lastSeen) : lastSeen);
+                }
+            }
+
+            segmentCount++;
+            recordCount += entries;
+            segmentOffset = previousSegmentOffset;
+        }
+    }
+
+    private void append(List<Long> hashes, List<Fingerprint> fingerprints, int[] lastSeen) throws IOException {
+        if (hashes.isEmpty()) {
+            return;
+        }
+
+        ChunkedWriter writer = new ChunkedWriter();
+
+        long[] offsets = new long[hashes.size()];
+        for (int i = 0; i < hashes.size(); i++) {
+            Fingerprint fingerprint = fingerprints.get(i);
+            offsets[i] = writer.getPosition();
+            writeRecord(writer.reserve(RECORD_HEADER_SIZE + fingerprint.getChannelCount()), hashes.get(i),
+                    fingerprint);
+        }
+
+        long segmentOffset = writer.getPosition();
+        writeSegmentHeader(writer, hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            writer.reserve(SEGMENT_ENTRY_SIZE)
+                    .putLong(hashes.get(i))
+                    .putLong(offsets[i])
+                    .putLong(packConfig(fingerprints.get(i).getConfig()))
+                    .putInt(lastSeen[i]);
+        }
+        commit(writer, segmentOffset);
+
+        for (int i = 0; i < hashes.size(); i++) {
+            index.put(hashes.get(i), offsets[i], packConfig(fingerprints.get(i).getConfig()), lastSeen[i]);
+        }
+        recordCount += hashes.size();
+    }
+
+    // Only for the fresh file compact() writes, which is closed right after: the source's records are copied without
+    // being decoded, and the index isn't filled in
+    private void appendRecordsOf(FingerprintCacheFile source, int[] slots) throws IOException {
+        if (slots.length == 0) {
+            return;
+        }
+
+        ChunkedWriter writer = new ChunkedWriter();
+
+        long[] offsets = new long[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+            offsets[i] = writer.getPosition();
+
+            ByteBuffer buffer = writer.reserve(source.getRecordSize(slot));
+            ByteBuffer record = buffer.slice();
+            record.limit(source.getRecordSize(slot));
+            source.readFully(record, source.index.offsets[slot]);
+
+            if (record.getLong(0) != source.index.keys[slot]) {
+                throw new IOException("Fingerprint cache " + source.file + " is corrupt, index doesn't match record");
+            }
+            buffer.position(buffer.position() + record.limit());
+        }
+
+        long segmentOffset = writer.getPosition();
+        writeSegmentHeader(writer, slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+            writer.reserve(SEGMENT_ENTRY_SIZE)
+                    .putLong(source.index.keys[slot])
+                    .putLong(offsets[i])
+                    .putLong(source.index.configs[slot])
+                    .putInt(source.index.lastSeen[slot]);
+        }
+        commit(writer, segmentOffset);
+    }
+
+    private void writeSegmentHeader(ChunkedWriter writer, int entries) throws IOException {
+        writer.reserve(SEGMENT_HEADER_SIZE)
+                .putInt(SEGMENT_MAGIC)
+                .putInt(entries)
+                .putLong(index.lastSegmentOffset);
+    }
+
+    // Writes what's left in the writer and the trailer, then commits it all
+    private void commit(ChunkedWriter writer, long segmentOffset) throws IOException {
+        writer.reserve(TRAILER_SIZE)
+                .putLong(segmentOffset)
+                .putInt(TRAILER_MAGIC);
+        writer.flush();
+        channel.force(false);
+
+        long newLength = writer.getPosition();
+        writeCommittedLength(newLength);
+
+        committedLength = newLength;
+        index.lastSegmentOffset = segmentOffset;
+        segmentCount++;
+    }
+
+    private Fingerprint readRecord(int slot) throws IOException {
+        long hash = index.keys[slot];
+        FingerprintConfig config = unpackConfig(index.configs[slot]);
+        int blockBytes = config.getAccuracyX() * config.getAccuracyY() * Fingerprint.CHANNELS;
+
+        ByteBuffer record = ByteBuffer.allocate(getRecordSize(slot));
+        readFully(record, index.offsets[slot]);
+        record.flip();
+
+        if (record.getLong() != hash) {
+            throw new IOException("Fingerprint cache " + file + " is corrupt, index doesn't match record");
+        }
+        record.position(16);
+        double noiseScore = record.getDouble();
+        long perceptualHash = record.getLong();
+
+        byte[] blocks = new byte[blockBytes];
+        record.get(blocks);
+
+        return new Fingerprint(config, blocks, noiseScore, perceptualHash);
+    }
+
+    // Slots of the entries to keep, most recently seen first
+    private int[] selectRetained(CacheRetentionPolicy policy, boolean withHeadroom) {
+        int oldestDay = (int) Math.max(Integer.MIN_VALUE, (long) today() - policy.getMaxAgeDays());
+
+        // (last seen, slot) packed so a plain sort orders by last seen
+        long[] bySeen = new long[index.size()];
+        int live = 0;
+        for (int slot = 0; slot < index.offsets.length; slot++) {
+            if ((index.offsets[slot] != 0) && (index.lastSeen[slot] >= oldestDay)) {
+                bySeen[live++] = ((long) index.lastSeen[slot] << 32) | slot;
+            }
+        }
+        Arrays.sort(bySeen, 0, live);
+
+        long maxEntries = policy.getMaxEntries();
+        long maxBytes = policy.getMaxBytes();
+        if (withHeadroom && ((live > maxEntries) || (getBytes(bySeen, live) > maxBytes))) {
+            maxEntries = maxEntries - (maxEntries / 10);
+            maxBytes = maxBytes - (maxBytes / 10);
+        }
+
+        int[] retained = new int[live];
+        int count = 0;
+        long bytes = 0;
+        for (int i = live - 1; i >= 0; i--) {
+            int slot = (int) bySeen[i];
+            bytes += getEntryBytes(slot);
+            if ((count >= maxEntries) || (bytes > maxBytes)) {
+                break;
+            }
+            retained[count++] = slot;
+        }
+
+        return Arrays.copyOf(retained, count);
+    }
+
+    private long getBytes(long[] bySeen, int live) {
+        long bytes = 0;
+        for (int i = 0; i < live; i++) {
+            bytes += getEntryBytes((int) bySeen[i]);
+        }
+        return bytes;
+    }
+
+    private int getRecordSize(int slot) {
+        FingerprintConfig config = unpackConfig(index.configs[slot]);
+        return RECORD_HEADER_SIZE + (config.getAccuracyX() * config.getAccuracyY() * Fingerprint.CHANNELS);
+    }
+
+    // Bytes an entry takes in a compacted file
+    private long getEntryBytes(int slot) {
+        FingerprintConfig config = unpackConfig(index.configs[slot]);
+        return RECORD_HEADER_SIZE + SEGMENT_ENTRY_SIZE
+                + ((long) config.getAccuracyX() * config.getAccuracyY() * Fingerprint.CHANNELS);
+    }
+
+    private static int today() {
+        return (int) (System.currentTimeMillis() / TimeUnit.DAYS.toMillis(1));
+    }
+
+    private static void writeRecord(ByteBuffer buffer, long hash, Fingerprint fingerprint) {
+        FingerprintConfig config = fingerprint.getConfig();
+        buffer.putLong(hash);
+        buffer.putShort((short) config.getAccuracyX());
+        buffer.putShort((short) config.getAccuracyY());
+        buffer.putInt(config.getPassesPerBlock());
+        buffer.putDouble(fingerprint.getNoiseScore());
+        buffer.putLong(fingerprint.getPerceptualHash());
+        buffer.put(fingerprint.getBlocks());
+    }
+
+    private void writeCommittedLength(long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(length).flip();
+        writeFully(buffer, 8);
+        channel.force(false);
+    }
+
+    // The config is kept in the index so hits can be checked without reading the record
+    private static long packConfig(FingerprintConfig config) {
+        return ((long) config.getAccuracyX() << 48) | ((long) config.getAccuracyY() << 32)
+                | (config.getPassesPerBlock() & 0xFFFFFFFFL);
+    }
+
+    private static FingerprintConfig unpackConfig(long config) {
+        return new FingerprintConfig((int) (config >>> 48) & 0xFFFF, (int) (config >>> 32) & 0xFFFF, (int) config);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Fingerprint cache " + file + " is truncated");
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    // Writes a commit past the committed length through one bounded buffer, so a big one isn't built in memory first.
+    // Anything already past the committed length is left over from a save that didn't finish, and is cut off.
+    private class ChunkedWriter {
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_CHUNK_SIZE);
+        private long flushedLength = committedLength;
+
+        private ChunkedWriter() throws IOException {
+            channel.truncate(committedLength);
+        }
+
+        // The buffer, with room for at least that many more bytes
+        private ByteBuffer reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        // Where the next byte goes in the file
+        private long getPosition() {
+            return flushedLength + buffer.position();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer, flushedLength);
+            flushedLength += buffer.limit();
+            buffer.clear();
+        }
+    }
+
+    // Open addressing (hash, packed config) -> (record offset, last seen), so a big cache doesn't cost an object per
+    // entry. Slots are placed by hash alone, so all configs of a hash are on one probe run.
+    // Record offsets are never 0 (the header comes first), 0 marks an empty slot.
+    private static class Index {
+        private long[] keys;
+        private long[] offsets;
+        private long[] configs;
+        private int[] lastSeen;
+        private int size;
+
+        private long lastSegmentOffset;
+
+        private Index(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) * 2;
+            keys = new long[capacity];
+            offsets = new long[capacity];
+            configs = new long[capacity];
+            lastSeen = new int[capacity];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int find(long key, long config) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+                if ((keys[slot] == key) && (configs[slot] == config)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void put(long key, long offset, long config, int seen) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while ((offsets[slot] != 0) && ((keys[slot] != key) || (configs[slot] != config))) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (offsets[slot] == 0) {
+                size++;
+            }
+            keys[slot] = key;
+            offsets[slot] = offset;
+            configs[slot] = config;
+            lastSeen[slot] = seen;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldOffsets = offsets;
+            long[] oldConfigs = configs;
+            int[] oldLastSeen = lastSeen;
+
+            keys = new long[oldKeys.length * 2];
+            offsets = new long[oldKeys.length * 2];
+            configs = new long[oldKeys.length * 2];
+            lastSeen = new int[oldKeys.length * 2];
+            size = 0;
+
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldOffsets[slot] != 0) {
+                    put(oldKeys[slot], oldOffsets[slot], oldConfigs[slot], oldLastSeen[slot]);
+                }
+            }
+        }
+
+        // Content hashes are already well mixed, this just keeps a weak one from clustering
+        private static int mix(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+    }
+
+    private static final class Key {
+        private final long hash;
+        private final long config;
+
+        private Key(long hash, long config) {
+            this.hash = hash;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return (other instanceof Key) && (((Key) other).hash == hash) && (((Key) other).config == config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash * 31 + config);
+        }
+    }
+}
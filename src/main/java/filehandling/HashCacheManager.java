@@ -1,154 +1,179 @@
 package filehandling;
 
-import com.fasterxml.jackson.databind.JavaType;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.NumericNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import imaging.sampler.Fingerprint;
 import imaging.sampler.FingerprintConfig;
 import imaging.sampler.Sampler;
-import imaging.util.SimpleColor;
-import imaging.util.SimplePair;
 import lombok.Getter;
-import lombok.Setter;
 
-import java.awt.*;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class HashCacheManager extends CacheManager<Sampler, Integer> {
+/**
+ * Fingerprints by file hash, kept in a {@link FingerprintCacheFile} next to the images. A hash can have
+ * fingerprints for several configs, coarser ones are pooled from finer ones when only those are cached.
+ * <p>
+ * Cached fingerprints are only read from disk when they're asked for. Lookups may come from any thread,
+ * {@link #cache(Sampler)} and {@link #saveCache()} from one at a time.
+ */
+public class HashCacheManager implements Closeable {
 
     // ========= ATTRIBUTES ===========================================================================================
 
     private static final String CACHE_DIRECTORY = ".duplicate_detection";
-    private static final String CACHE_FILE = "cache";
+    private static final String CACHE_FILE = "fingerprints.bin";
+    private static final String FILE_STAT_CACHE_FILE = "file-stats.bin";
 
-    @Getter // override
-    @Setter // override
-    private Map<Integer, Sampler> cache;
+    private final FingerprintCacheFile cacheFile;
 
-    @Getter // override
-    private Map<Integer, Sampler> newCache = new HashMap<>();
+    // Content hashes of files by stat, so unchanged files don't need reading to find their fingerprint
+    @Getter
+    private final FileStatCache fileStatCache;
+
+    // Fingerprints that aren't in the cache file yet (with their config), appended on save
+    private final Map<Long, Sampler> newCache = new HashMap<>();
+
+    private final CacheRetentionPolicy retentionPolicy;
 
     // ========= CONSTRUCTOR ==========================================================================================
     public HashCacheManager(String imageFolderPath) {
-        super(imageFolderPath);
+        this(imageFolderPath, CacheRetentionPolicy.UNLIMITED);
     }
 
-    // ========= ABSTRACT CLASS IMPLEMENTATION DETAILS ================================================================
-    @Override
-    void cache(Sampler sampler, Integer fileMdHash) {
-        newCache.put(sampler.getFileMdHash(), sampler);
-    }
+    public HashCacheManager(String imageFolderPath, CacheRetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
 
-    @Override
-    String getCacheDirectory() {
-        return CACHE_DIRECTORY;
-    }
+        File cacheDirectory = new File(imageFolderPath, CACHE_DIRECTORY);
+        File cache = new File(cacheDirectory, CACHE_FILE);
 
-    @Override
-    String getCacheFile() {
-        return CACHE_FILE;
+        try {
+            if (!cacheDirectory.exists() && !cacheDirectory.mkdir()) {
+                throw new RuntimeException("Couldn't create cache directory.");
+            }
+
+            cacheFile = new FingerprintCacheFile(cache);
+            fileStatCache = new FileStatCache(new File(cacheDirectory, FILE_STAT_CACHE_FILE));
+
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't read cache: " + cache.getAbsolutePath() + ". Maybe it is corrupt?");
+        }
+
+        System.out.println("Opened cache at: " + cache.getAbsolutePath() + " (" + cacheFile.size() + " fingerprints)");
     }
 
-    @Override
-    JsonNode cachedObjectAsJSON(Sampler sampler) {
-        ObjectMapper mapper = new ObjectMapper();
+    // ========= HASH-CACHE-MANAGER METHODS ===========================================================================
 
-        // Root
-        ObjectNode rootNode = jsonNodeFactory.objectNode();
+    public void cache(Sampler sampler) {
+        // fingerprints that can be pooled from a cached one aren't worth storing
+        long hash = sampler.getFileMdHash();
+        if (!isCached(hash, sampler.getFingerprint().getConfig())) {
+            newCache.put(hash, sampler);
+        }
+    }
 
-        // Hash
-        NumericNode hashNode = jsonNodeFactory.numberNode(sampler.getFileMdHash());
-        rootNode.set("hash", hashNode);
+    public Sampler loadCachedSampler(Long imageFileHash, FingerprintConfig config) {
+        FingerprintConfig source = getSourceConfig(imageFileHash, config);
 
-        // Sampler
-        ObjectNode samplerNode = jsonNodeFactory.objectNode();
+        // Every call reads a new Sampler, we don't want two files
+        // sharing the same hash to point to the same Sampler object
+        try {
+            Fingerprint fingerprint = cacheFile.read(imageFileHash, source);
+            if (!source.equals(config)) {
+                fingerprint = fingerprint.pooledTo(config);
+            }
 
-        // Sampler - FingerprintConfig
-        NumericNode accuracyXNode = jsonNodeFactory.numberNode(sampler.getFingerprintConfig_cached().getAccuracyX());
-        NumericNode accuracyYNode = jsonNodeFactory.numberNode(sampler.getFingerprintConfig_cached().getAccuracyY());
-        NumericNode passesPerBlockNode = jsonNodeFactory.numberNode(sampler.getFingerprintConfig_cached().getPassesPerBlock());
-        NumericNode noiseScoreNode = jsonNodeFactory.numberNode(sampler.getNoiseScore().doubleValue());
-        samplerNode.set("accuracyX", accuracyXNode);
-        samplerNode.set("accuracyY", accuracyYNode);
-        samplerNode.set("passesPerBlock", passesPerBlockNode);
-        samplerNode.set("noiseScore", noiseScoreNode);
+            Sampler sampler = new Sampler(fingerprint);
+            sampler.setFileMdHash(imageFileHash);
+            return sampler;
 
-        // Sampler - Fingerprint
-        ArrayNode fingerprintNode = mapper.valueToTree(sampler.getFingerprint(sampler.getFingerprintConfig_cached()));
-        samplerNode.set("fingerprint", fingerprintNode);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't read cached fingerprint " + Long.toHexString(imageFileHash)
+                    + ". Maybe the cache is corrupt?");
+        }
+    }
 
-        rootNode.set("sampler", samplerNode);
+    // The cache's own files, so a recursive search doesn't try to fingerprint them (the old JSON cache is a file
+    // named after the directory outside Windows)
+    public static boolean isCacheFile(File file) {
+        File parent = file.getParentFile();
+        return file.getName().startsWith(CACHE_DIRECTORY)
+                || ((parent != null) && parent.getName().equals(CACHE_DIRECTORY));
+    }
 
-        return rootNode;
+    // Cache hit if a file with the same hash was fingerprinted + cached with the configuration being requested,
+    // or with a finer one the requested fingerprint can be pooled from
+    public boolean isCached(Long imageFileHash, FingerprintConfig config) {
+        return getSourceConfig(imageFileHash, config) != null;
     }
 
-    @Override
-    Map<Integer, Sampler> cacheAsPOJO(JsonNode root) {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<Integer, Sampler> hashesWithSamplers = new HashMap<>();
-
-        // For each Sampler-Hash key-value pair
-        for (JsonNode node : root) {
-            JsonNode samplerNode = node.get("sampler");
-            ArrayNode fingerprintNode = (ArrayNode) samplerNode.get("fingerprint");
-            NumericNode hashNode = (NumericNode) node.get("hash");
-
-            NumericNode accuracyXNode = (NumericNode) samplerNode.get("accuracyX");
-            NumericNode accuracyYNode = (NumericNode) samplerNode.get("accuracyY");
-            NumericNode passesPerBlockNode = (NumericNode) samplerNode.get("passesPerBlock");
-            NumericNode noiseScoreNode = (NumericNode) samplerNode.get("noiseScore");
-
-            // Constructing parametric type Pair<Point, SimpleColor>
-            JavaType type = mapper.getTypeFactory().constructParametricType(SimplePair.class, Point.class, SimpleColor.class);
-
-            ObjectReader reader = mapper.readerFor(type);
-            List<SimplePair<Point, SimpleColor>> fingerprint = new ArrayList<>();
-            try {
-                // For each sample taken (key x,y : value r,g,b,a)
-                for (JsonNode discreteSample : fingerprintNode) {
-                    fingerprint.add(reader.readValue(discreteSample));
-                }
-                FingerprintConfig fingerprintConfig = new FingerprintConfig(
-                        accuracyXNode.asInt(), accuracyYNode.asInt(), passesPerBlockNode.asInt());
+    // Appends what was cached since the last save and marks what was used as seen. Old entries are kept
+    // (other folders or files that were moved away for a while might still need them) until the retention policy
+    // evicts them, or the file is compacted once it's mostly superseded records.
+    public void saveCache() {
+        List<Long> hashes = new ArrayList<>(newCache.keySet());
+        List<Fingerprint> fingerprints = new ArrayList<>(hashes.size());
+        for (Long hash : hashes) {
+            fingerprints.add(newCache.get(hash).getFingerprint());
+        }
+
+        try {
+            cacheFile.append(hashes, fingerprints);
+            cacheFile.saveSeen();
+            newCache.clear();
+            fileStatCache.save();
 
-                Sampler sampler = new Sampler(fingerprint, fingerprintConfig, noiseScoreNode.asDouble());
+            // Expired entries alone only trigger a rewrite once there are a few of them
+            int evictable = cacheFile.countEvictable(retentionPolicy);
+            boolean evict = (evictable > 0)
+                    && (cacheFile.isOverLimits(retentionPolicy) || (evictable * 20 >= cacheFile.size()));
 
-                hashesWithSamplers.put(hashNode.asInt(), sampler);
+            if (evict || cacheFile.shouldCompact()) {
+                System.out.println("Compacting cache");
+                int evicted = cacheFile.compact(retentionPolicy);
 
-            } catch (IOException e) {
-                e.printStackTrace();
-                throw new RuntimeException("Couldn't parse cache. Maybe it is corrupt?");
+                if (evicted > 0) {
+                    System.out.println("Evicted " + evicted + " fingerprints from the cache");
+                    fileStatCache.retainContentHashes(cacheFile::contains);
+                }
             }
+
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't write cache: " + e.getMessage());
         }
 
-        return hashesWithSamplers;
+        System.out.println("Saved " + hashes.size() + " new fingerprints to the cache");
     }
 
-    // ========= HASH-CACHE-MANAGER METHODS ===========================================================================
+    @Override
+    public void close() {
+        try {
+            cacheFile.close();
+            fileStatCache.close();
 
-    // -- Simpler cache implementation
-    public void cache(Sampler sampler) {
-        cache(sampler, sampler.getFileMdHash());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
-    // -- Use this instead of the abstract loadCachedObject(Integer)
-    public Sampler loadCachedSampler(Integer imageFileHash) {
-        // Returns a copy of a sampler, we don't want two files
-        // sharing the same hash to point to the same Sampler object
-        return loadCachedObject(imageFileHash).copy();
-    }
+    // ========= HELPERS ==============================================================================================
 
-    // -- Use this instead of the abstract isCached(Integer)
-    // Calls abstract implementation first, then does another check to see if the cached
-    // Sampler was cached with the same fingerprint configuration provided
-    public boolean isCached(Integer imageFileHash, FingerprintConfig config) {
-        return isCached(imageFileHash) && getCache().get(imageFileHash).getFingerprintConfig_cached().equals(config);
+    // The cached config to read for the requested one: the same config, or else the coarsest finer one it can be
+    // pooled from. Null if neither is cached.
+    private FingerprintConfig getSourceConfig(long imageFileHash, FingerprintConfig config) {
+        FingerprintConfig source = null;
+        for (FingerprintConfig cached : cacheFile.getConfigs(imageFileHash)) {
+            if (cached.equals(config)) {
+                return cached;
+            }
+            if (config.isDerivableFrom(cached)
+                    && ((source == null) || (cached.getBlockCount() < source.getBlockCount()))) {
+                source = cached;
+            }
+        }
+        return source;
     }
 }
@@ -0,0 +1,91 @@
+package filehandling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Finds the files in a folder (and optionally its subfolders) that could be images, handing each one over as soon as
+ * it's found. Nothing is opened - telling images from other files is up to the consumer, which usually knows most of
+ * them from its caches already (see {@link imaging.threading.ImageIngestPipeline}).
+ * <p>
+ * Every subfolder is a task of its own in a {@link ForkJoinPool}, so deep trees are listed in parallel. Symbolic links
+ * to files are followed, links to folders aren't (they could loop). The consumer is called from the walker's threads,
+ * and may block.
+ */
+public class ImageFileWalker {
+
+    private final int threads;
+
+    public ImageFileWalker(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Returns once the whole tree was walked and every file was passed to the consumer.
+     *
+     * @param files Every file found, but the caches' own
+     */
+    public void walk(File root, boolean recursive, Consumer<File> files) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DirectoryTask(root.toPath(), recursive, files));
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // ========= TASKS ================================================================================================
+
+    // never serialized, like any fork/join task
+    @SuppressWarnings("serial")
+    private static class DirectoryTask extends RecursiveAction {
+        private final Path directory;
+        private final boolean recursive;
+        private final Consumer<File> files;
+
+        private DirectoryTask(Path directory, boolean recursive, Consumer<File> files) {
+            this.directory = directory;
+            this.recursive = recursive;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> tasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes =
+                            Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+                    if (attributes.isDirectory()) {
+                        if (recursive && !HashCacheManager.isCacheFile(entry.toFile())) {
+                            tasks.add(new DirectoryTask(entry, true, files));
+                        }
+
+                    } else if ((attributes.isRegularFile() || (attributes.isSymbolicLink()
+                            && Files.isRegularFile(entry))) && !HashCacheManager.isCacheFile(entry.toFile())) {
+                        files.accept(entry.toFile());
+                    }
+                }
+
+            } catch (IOException e) {
+                // an unreadable folder shouldn't stop the rest of the walk
+                System.out.println("Couldn't list " + directory + ": " + e.getMessage());
+            }
+
+            invokeAll(tasks);
+        }
+    }
+}
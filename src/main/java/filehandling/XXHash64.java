@@ -0,0 +1,145 @@
+package filehandling;
+
+import java.util.zip.Checksum;
+
+/**
+ * Streaming xxHash64 (seed 0): a fast, well distributed, non-cryptographic 64-bit hash.
+ * Feed it any number of chunks with {@link #update(byte[], int, int)}, then read {@link #getValue()}.
+ */
+public class XXHash64 implements Checksum {
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    private static final int STRIPE = 32;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long totalLength;
+
+    // bytes that didn't fill a whole stripe yet
+    private final byte[] pending = new byte[STRIPE];
+    private int pendingLength;
+
+    public XXHash64() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME_1 + PRIME_2;
+        v2 = PRIME_2;
+        v3 = 0;
+        v4 = -PRIME_1;
+        totalLength = 0;
+        pendingLength = 0;
+    }
+
+    @Override
+    public void update(int b) {
+        update(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        totalLength += length;
+
+        if (pendingLength > 0) {
+            int fill = Math.min(STRIPE - pendingLength, length);
+            System.arraycopy(bytes, offset, pending, pendingLength, fill);
+            pendingLength += fill;
+            offset += fill;
+            length -= fill;
+
+            if (pendingLength < STRIPE) {
+                return;
+            }
+            consumeStripe(pending, 0);
+            pendingLength = 0;
+        }
+
+        int end = offset + length;
+        for (; offset + STRIPE <= end; offset += STRIPE) {
+            consumeStripe(bytes, offset);
+        }
+
+        pendingLength = end - offset;
+        System.arraycopy(bytes, offset, pending, 0, pendingLength);
+    }
+
+    @Override
+    public long getValue() {
+        long hash;
+        if (totalLength >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME_5;
+        }
+
+        hash += totalLength;
+
+        int i = 0;
+        for (; i + 8 <= pendingLength; i += 8) {
+            hash ^= round(0, readLong(pending, i));
+            hash = (Long.rotateLeft(hash, 27) * PRIME_1) + PRIME_4;
+        }
+        if (i + 4 <= pendingLength) {
+            hash ^= (readInt(pending, i) & 0xFFFFFFFFL) * PRIME_1;
+            hash = (Long.rotateLeft(hash, 23) * PRIME_2) + PRIME_3;
+            i += 4;
+        }
+        for (; i < pendingLength; i++) {
+            hash ^= (pending[i] & 0xFFL) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+
+        // avalanche
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+
+        return hash;
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private void consumeStripe(byte[] bytes, int offset) {
+        v1 = round(v1, readLong(bytes, offset));
+        v2 = round(v2, readLong(bytes, offset + 8));
+        v3 = round(v3, readLong(bytes, offset + 16));
+        v4 = round(v4, readLong(bytes, offset + 24));
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME_1;
+    }
+
+    private static long mergeRound(long hash, long accumulator) {
+        hash ^= round(0, accumulator);
+        return (hash * PRIME_1) + PRIME_4;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (readInt(bytes, offset) & 0xFFFFFFFFL) | (((long) readInt(bytes, offset + 4)) << 32);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | ((bytes[offset + 1] & 0xFF) << 8)
+                | ((bytes[offset + 2] & 0xFF) << 16)
+                | ((bytes[offset + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,15 @@
+package imaging;
+
+// How each image finds the images most similar to it
+public enum ComparisonMode {
+
+    // Score every image against every other image
+    EXHAUSTIVE,
+
+    // Query a vantage-point tree built over the fingerprints, see imaging.index.VantagePointTree
+    METRIC_INDEX,
+
+    // Only score pairs whose perceptual hashes are close (see imaging.index.MultiIndexHashTable), and keep those
+    // under an absolute score limit - for very large sets, there's no nth-smallest score to compare against
+    HASH_PREFILTER
+}
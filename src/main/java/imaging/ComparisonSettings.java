@@ -0,0 +1,51 @@
+package imaging;
+
+import imaging.sampler.FingerprintConfig;
+import lombok.Builder;
+import lombok.Getter;
+import main.ApplicationConfig;
+
+/**
+ * Everything a single comparison run can be tuned with. Anything not set falls back to {@link ApplicationConfig}.
+ */
+@Getter
+@Builder
+public class ComparisonSettings {
+
+    @Builder.Default
+    private final FingerprintConfig fingerprintConfig = FingerprintConfig.exact(10, 10);
+
+    // Also look for images in subdirectories (and theirs)
+    @Builder.Default
+    private final boolean recursive = false;
+
+    // Threads for decoding, fingerprinting and comparing (hashing always has a couple of its own)
+    @Builder.Default
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    // Bytes of decoded images in flight at once, see ApplicationConfig.DECODE_MEMORY_BUDGET
+    @Builder.Default
+    private final long decodeMemoryBudget = ApplicationConfig.DECODE_MEMORY_BUDGET;
+
+    @Builder.Default
+    private final ComparisonMode comparisonMode = ApplicationConfig.COMPARISON_MODE;
+
+    @Builder.Default
+    private final int expectMaxDuplicates = ApplicationConfig.EXPECT_MAX_DUPLICATES;
+
+    @Builder.Default
+    private final double divergenceToleranceFactor = ApplicationConfig.DIVERGENCE_TOLERANCE_FACTOR;
+
+    @Builder.Default
+    private final int hashPrefilterMaxHammingDistance = ApplicationConfig.HASH_PREFILTER_MAX_HAMMING_DISTANCE;
+
+    // Overrides ApplicationConfig.HASH_PREFILTER_MAX_SCORE_PER_BLOCK when set
+    private final Integer hashPrefilterMaxScore;
+
+    public int getHashPrefilterMaxScore() {
+        if (hashPrefilterMaxScore != null) {
+            return hashPrefilterMaxScore;
+        }
+        return ApplicationConfig.HASH_PREFILTER_MAX_SCORE_PER_BLOCK * fingerprintConfig.getBlockCount();
+    }
+}
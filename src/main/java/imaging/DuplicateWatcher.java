@@ -0,0 +1,467 @@
+package imaging;
+
+import filehandling.ExactDuplicateDetector;
+import filehandling.HashCacheManager;
+import imaging.decoding.ImageHeader;
+import imaging.index.IncrementalIndex;
+import imaging.sampler.Fingerprint;
+import imaging.sampler.FingerprintConfig;
+import imaging.sampler.Sampler;
+import imaging.scoring.BoundedScoreHeap;
+import imaging.scoring.ComparisonScorer;
+import imaging.util.SimplePair;
+import main.ApplicationConfig;
+import ui.UITaskFeedbackProxy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps watching folders for duplicates: everything is fingerprinted and indexed once, after that only images that
+ * were created, changed or deleted are (see {@link WatchService}).
+ * <p>
+ * Each changed image is compared against the {@link IncrementalIndex} alone. Matches are decided like
+ * {@link ComparisonMode#METRIC_INDEX} does, from both sides: the new image's nearest neighbours, and whether the new
+ * image stands out among the nearest neighbours of those. Every match found is reported as it's found, existing
+ * duplicates once after the first indexing.
+ * <p>
+ * Files are only picked up once nothing happened to them for {@link #SETTLE_MILLIS}, so files still being copied in
+ * aren't fingerprinted half written. Not thread-safe, {@link #run()} from one thread.
+ */
+public class DuplicateWatcher implements Closeable {
+
+    public interface DuplicateListener {
+
+        /**
+         * @param image       The image that (re)appeared, or either of a pair found while indexing
+         * @param duplicateOf The image it duplicates
+         * @param binarySame  Whether the two have the same content hash, i.e. are copies of the same file
+         */
+        void duplicateFound(File image, File duplicateOf, int score, boolean binarySame);
+    }
+
+    // ========= CONSTANTS ============================================================================================
+
+    private static final long SETTLE_MILLIS = 2000;
+    private static final long IDLE_POLL_MILLIS = 1000;
+
+    // ========= ATTRIBUTES ===========================================================================================
+
+    private final ComparisonSettings settings;
+    private final FingerprintConfig fingerprintConfig;
+    private final DuplicateListener listener;
+
+    private final ImageComparisonUtility imageComparisonUtility;
+    private final IncrementalIndex index = new IncrementalIndex(new ComparisonScorer());
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directoriesByKey = new HashMap<>();
+
+    // Caches of the watched folders, by folder
+    private final Map<Path, HashCacheManager> hashCacheManagers = new LinkedHashMap<>();
+
+    // Kept for as long as the folders are watched, so new files are told apart from the ones indexed before
+    private final Map<Path, ExactDuplicateDetector> exactDuplicateDetectors = new HashMap<>();
+
+    private final Map<Path, Indexed> indexedByPath = new HashMap<>();
+    private final Map<Integer, Indexed> indexedById = new HashMap<>();
+
+    // Files with events that haven't settled yet, with the time of their last event
+    private final Map<Path, Long> pending = new LinkedHashMap<>();
+
+    // ========= CONSTRUCTOR ==========================================================================================
+
+    public DuplicateWatcher(List<String> roots, ComparisonSettings settings, UITaskFeedbackProxy feedbackProxy,
+                            DuplicateListener listener) throws IOException {
+        this.settings = settings;
+        this.fingerprintConfig = settings.getFingerprintConfig();
+        this.listener = listener;
+        this.imageComparisonUtility = new ImageComparisonUtility(settings, feedbackProxy);
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        for (String root : roots) {
+            Path path = new File(root).getCanonicalFile().toPath();
+            HashCacheManager hashCacheManager = new HashCacheManager(root, ApplicationConfig.CACHE_RETENTION_POLICY);
+            hashCacheManagers.put(path, hashCacheManager);
+            exactDuplicateDetectors.put(path, imageComparisonUtility.newExactDuplicateDetector(hashCacheManager));
+        }
+    }
+
+    // ========= API ==================================================================================================
+
+    /**
+     * Indexes every folder, reports the duplicates already in them, then watches them until {@link #close()} is
+     * called or the thread is interrupted.
+     */
+    public void run() throws IOException {
+        for (Map.Entry<Path, HashCacheManager> root : hashCacheManagers.entrySet()) {
+            // register first, so nothing that changes while the folder is being indexed is missed
+            registerAll(root.getKey());
+            indexFolder(root.getKey(), root.getValue());
+        }
+        reportExistingDuplicates();
+
+        System.out.println("Watching " + hashCacheManagers.size() + " folder(s), " + index.size() + " images indexed");
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(getMillisUntilSettled(), TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+
+                processSettled();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        } catch (ClosedWatchServiceException e) {
+            // closed, we're done
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        for (HashCacheManager hashCacheManager : hashCacheManagers.values()) {
+            hashCacheManager.close();
+        }
+    }
+
+    // ========= INDEXING =============================================================================================
+
+    private void indexFolder(Path root, HashCacheManager hashCacheManager) {
+        List<Sampler> samplers = imageComparisonUtility.loadImages(hashCacheManager,
+                exactDuplicateDetectors.get(root), root.toString());
+
+        // Files with the same hash share one fingerprint (like in the batch comparison)
+        Map<Long, Fingerprint> fingerprintsByHash = new HashMap<>();
+        List<Fingerprint> fingerprints = new ArrayList<>(samplers.size());
+        for (Sampler sampler : samplers) {
+            fingerprints.add(fingerprintsByHash.computeIfAbsent(sampler.getFileMdHash(),
+                    hash -> sampler.getFingerprint(fingerprintConfig)));
+        }
+
+        int id = index.addAll(fingerprints);
+        for (Sampler sampler : samplers) {
+            Indexed indexed = new Indexed(id++, sampler.getFile(), sampler.getFileMdHash());
+            indexedByPath.put(indexed.file.toPath(), indexed);
+            indexedById.put(indexed.id, indexed);
+        }
+    }
+
+    private void reportExistingDuplicates() {
+        Set<Long> reported = new HashSet<>();
+
+        for (Indexed indexed : indexedById.values()) {
+            for (SimplePair<Integer, Integer> duplicate : getDuplicates(indexed.id)) {
+                int other = duplicate.getKey();
+                long pair = ((long) Math.min(indexed.id, other) << 32) | Math.max(indexed.id, other);
+
+                if (reported.add(pair)) {
+                    report(indexed, indexedById.get(other), duplicate.getValue());
+                }
+            }
+        }
+    }
+
+    // The duplicates of an indexed image (id, score), whichever side of a pair finds it
+    private List<SimplePair<Integer, Integer>> getDuplicates(int id) {
+        BoundedScoreHeap nearest = index.getNearest(index.get(id), settings.getExpectMaxDuplicates(), id);
+        List<SimplePair<Integer, Integer>> duplicates = ImageComparisonUtility.getDuplicatesAmongNearest(
+                nearest, settings.getDivergenceToleranceFactor());
+
+        Set<Integer> found = new HashSet<>();
+        for (SimplePair<Integer, Integer> duplicate : duplicates) {
+            found.add(duplicate.getKey());
+        }
+
+        // the other way around: this image standing out among a neighbour's nearest
+        for (int i = 0; i < nearest.size(); i++) {
+            int neighbour = nearest.getId(i);
+            if (found.contains(neighbour)) {
+                continue;
+            }
+
+            for (SimplePair<Integer, Integer> duplicate : ImageComparisonUtility.getDuplicatesAmongNearest(
+                    index.getNearest(index.get(neighbour), settings.getExpectMaxDuplicates(), neighbour),
+                    settings.getDivergenceToleranceFactor())) {
+                if (duplicate.getKey() == id) {
+                    duplicates.add(new SimplePair<>(neighbour, duplicate.getValue()));
+                }
+            }
+        }
+
+        return duplicates;
+    }
+
+    // ========= WATCHING =============================================================================================
+
+    private void handleEvents(WatchKey key) throws IOException {
+        Path directory = directoriesByKey.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, look at everything again (unchanged files are recognised by their stat)
+                System.out.println("Missed some file events, rescanning");
+                rescan();
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            if (HashCacheManager.isCacheFile(path.toFile())) {
+                continue;
+            }
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                removeUnder(path);
+
+            } else if (Files.isDirectory(path)) {
+                // a new (or moved in) folder only raises an event for itself, not for what's in it
+                if (settings.isRecursive() && (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)) {
+                    registerAll(path);
+                    markPendingUnder(path);
+                }
+
+            } else {
+                pending.put(path, System.currentTimeMillis());
+            }
+        }
+
+        if (!key.reset()) {
+            directoriesByKey.remove(key);
+        }
+    }
+
+    private void processSettled() {
+        long now = System.currentTimeMillis();
+        Set<HashCacheManager> changed = new HashSet<>();
+
+        Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (now - entry.getValue() < SETTLE_MILLIS) {
+                continue;
+            }
+            iterator.remove();
+
+            HashCacheManager hashCacheManager = getHashCacheManager(entry.getKey());
+            if (hashCacheManager != null) {
+                try {
+                    update(entry.getKey(), hashCacheManager);
+                    changed.add(hashCacheManager);
+
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Couldn't index " + entry.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        for (HashCacheManager hashCacheManager : changed) {
+            hashCacheManager.saveCache();
+        }
+    }
+
+    // Until the first pending file settles, or a while if there are none (the wait is cut short by any event anyway)
+    private long getMillisUntilSettled() {
+        if (pending.isEmpty()) {
+            return IDLE_POLL_MILLIS;
+        }
+
+        long earliest = Long.MAX_VALUE;
+        for (long lastEvent : pending.values()) {
+            earliest = Math.min(earliest, lastEvent);
+        }
+        return Math.max(1, earliest + SETTLE_MILLIS - System.currentTimeMillis());
+    }
+
+    // A file appeared or changed: (re)index it, and report what it duplicates
+    private void update(Path path, HashCacheManager hashCacheManager) throws IOException {
+        File file = path.toFile();
+        Indexed previous = indexedByPath.get(path);
+
+        ImageHeader header = Files.isRegularFile(path) ? ImageHeader.probe(file) : null;
+        if (header == null) {
+            removeUnder(path);
+            return;
+        }
+
+        long hash = exactDuplicateDetectors.get(getRoot(path)).getContentKey(file);
+
+        if ((previous != null) && (previous.hash == hash)) {
+            // touched, not changed
+            return;
+        }
+
+        Sampler sampler = loadSampler(header, hash, hashCacheManager);
+        if (sampler == null) {
+            removeUnder(path);
+            return;
+        }
+
+        if (previous != null) {
+            remove(previous);
+        }
+
+        Indexed indexed = new Indexed(index.add(sampler.getFingerprint(fingerprintConfig)), file, hash);
+        indexedByPath.put(path, indexed);
+        indexedById.put(indexed.id, indexed);
+
+        for (SimplePair<Integer, Integer> duplicate : getDuplicates(indexed.id)) {
+            report(indexed, indexedById.get(duplicate.getKey()), duplicate.getValue());
+        }
+    }
+
+    private void report(Indexed image, Indexed duplicateOf, int score) {
+        listener.duplicateFound(image.file, duplicateOf.file, score, image.hash == duplicateOf.hash);
+    }
+
+    // The same way the ingest pipeline gets one: from the cache, or else by fingerprinting the file
+    private Sampler loadSampler(ImageHeader image, long hash, HashCacheManager hashCacheManager) {
+        if (hashCacheManager.isCached(hash, fingerprintConfig)) {
+            Sampler sampler = hashCacheManager.loadCachedSampler(hash, fingerprintConfig);
+            sampler.setFile(image.getFile());
+            return sampler;
+        }
+
+        Sampler sampler = Sampler.decode(image, fingerprintConfig);
+        if (!sampler.isDecoded()) {
+            return null;
+        }
+
+        sampler.setFileMdHash(hash);
+        sampler.getFingerprint(fingerprintConfig);
+        sampler.clearRaster();
+        hashCacheManager.cache(sampler);
+        return sampler;
+    }
+
+    // Forgets the file, or everything in the folder
+    private void removeUnder(Path path) {
+        pending.keySet().removeIf(pendingPath -> pendingPath.startsWith(path));
+
+        List<Indexed> removed = new ArrayList<>();
+        for (Indexed indexed : indexedByPath.values()) {
+            if (indexed.file.toPath().startsWith(path)) {
+                removed.add(indexed);
+            }
+        }
+        for (Indexed indexed : removed) {
+            remove(indexed);
+            forget(indexed.file);
+        }
+    }
+
+    private void remove(Indexed indexed) {
+        index.remove(indexed.id);
+        indexedByPath.remove(indexed.file.toPath());
+        indexedById.remove(indexed.id);
+    }
+
+    private void rescan() throws IOException {
+        List<Indexed> gone = new ArrayList<>();
+        for (Indexed indexed : indexedByPath.values()) {
+            if (!indexed.file.exists()) {
+                gone.add(indexed);
+            }
+        }
+        for (Indexed indexed : gone) {
+            remove(indexed);
+            forget(indexed.file);
+        }
+
+        for (Path root : hashCacheManagers.keySet()) {
+            registerAll(root);
+            markPendingUnder(root);
+        }
+    }
+
+    private void markPendingUnder(Path directory) throws IOException {
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = settings.isRecursive() ? Files.walk(directory) : Files.list(directory)) {
+            files.filter(Files::isRegularFile)
+                    .filter(file -> !HashCacheManager.isCacheFile(file.toFile()))
+                    .forEach(file -> pending.put(file, now));
+        }
+    }
+
+    // Watches the folder, and with recursion every folder under it
+    private void registerAll(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                if (HashCacheManager.isCacheFile(dir.toFile())
+                        || (!settings.isRecursive() && !dir.equals(directory))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directoriesByKey.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private HashCacheManager getHashCacheManager(Path file) {
+        Path root = getRoot(file);
+        return (root != null) ? hashCacheManagers.get(root) : null;
+    }
+
+    // The file is gone (or no image), files keyed later needn't be compared with it
+    private void forget(File file) {
+        Path root = getRoot(file.toPath());
+        if (root != null) {
+            exactDuplicateDetectors.get(root).forget(file);
+        }
+    }
+
+    // The watched folder the file is in
+    private Path getRoot(Path file) {
+        for (Path root : hashCacheManagers.keySet()) {
+            if (file.startsWith(root)) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    // ========= TYPES ================================================================================================
+
+    // An image in the index
+    private static class Indexed {
+        private final int id;
+        private final File file;
+        private final long hash;
+
+        private Indexed(int id, File file, long hash) {
+            this.id = id;
+            this.file = file;
+            this.hash = hash;
+        }
+    }
+}
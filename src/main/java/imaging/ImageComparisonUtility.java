@@ -1,287 +1,245 @@
 package imaging;
 
-import filehandling.FileHandlerUtil;
+import filehandling.ContentHasher;
+import filehandling.ExactDuplicateDetector;
 import filehandling.HashCacheManager;
+import filehandling.ImageFileWalker;
+import imaging.grouping.DuplicateGroup;
+import imaging.grouping.DuplicateGrouper;
+import imaging.index.MultiIndexHashTable;
+import imaging.index.VantagePointTree;
+import imaging.sampler.Fingerprint;
 import imaging.sampler.FingerprintConfig;
 import imaging.sampler.Sampler;
-import imaging.scoring.NumberOrderedPairList;
-import imaging.threading.ImageLoaderWorker;
-import imaging.util.SimpleColor;
+import imaging.scoring.BoundedScoreHeap;
+import imaging.scoring.ComparisonScorer;
+import imaging.threading.ImageIngestPipeline;
+import imaging.threading.TriangleComparisonEngine;
 import imaging.util.SimplePair;
 import main.ApplicationConfig;
 import threading.EventTimer;
-import threading.SynArrayList;
-import threading.ThreadPool;
 import ui.ProgressBarFeedbackProxy;
 import ui.UI;
+import ui.UITaskFeedbackProxy;
 
-import java.awt.*;
-import java.io.*;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ImageComparisonUtility {
 
-    private final FingerprintConfig fingerprintConfig = new FingerprintConfig(10, 10, 25);
-    private ProgressBarFeedbackProxy progressBarFeedbackProxy;
-    
+    private final ComparisonSettings settings;
+    private final FingerprintConfig fingerprintConfig;
+    private final ComparisonScorer comparisonScorer = new ComparisonScorer();
+    private final ContentHasher contentHasher = new ContentHasher(ApplicationConfig.CONTENT_HASH_ALGORITHM);
+    private UITaskFeedbackProxy feedbackProxy;
+
+    public ImageComparisonUtility() {
+        this(ComparisonSettings.builder().build(), null);
+    }
+
+    // Without a window, progress goes to the given proxy
+    public ImageComparisonUtility(ComparisonSettings settings, UITaskFeedbackProxy feedbackProxy) {
+        this.settings = settings;
+        this.fingerprintConfig = settings.getFingerprintConfig();
+        this.feedbackProxy = feedbackProxy;
+    }
+
     public void runApp() {
 
         UI ui = new UI(this);
 
-        this.progressBarFeedbackProxy = new ProgressBarFeedbackProxy(ui);
+        this.feedbackProxy = new ProgressBarFeedbackProxy(ui);
 
         ui.showUI();
     }
 
-    public List<SimplePair<SimplePair<String, String>, Double>> runImageComparisonForPath(String path) {
-        HashCacheManager hashCacheManager = new HashCacheManager(path);
-
+    public List<DuplicateGroup> runImageComparisonForPath(String path) {
         // Load the images into picture samplers
-        List<Sampler> pictureSamplers = loadImages(hashCacheManager, path);
-
-        // Each pair key is a pair containing both file names the comparison was drawn between,
-        // the value is the comparison score
-        List<SimplePair<SimplePair<String, String>, Double>> duplicatePairs = new ArrayList<>();
-        for (int i = 0; i < pictureSamplers.size(); i++) {
-
-            Sampler subject = pictureSamplers.get(i);
-
-            NumberOrderedPairList<String> comparisonScores = getAllComparisonScoresForImage(subject, pictureSamplers);
-
-            duplicatePairs.addAll(getDuplicates(comparisonScores, subject));
+        List<Sampler> pictureSamplers;
+        try (HashCacheManager hashCacheManager =
+                     new HashCacheManager(path, ApplicationConfig.CACHE_RETENTION_POLICY)) {
+            pictureSamplers = loadImages(hashCacheManager, newExactDuplicateDetector(hashCacheManager), path);
         }
 
-        trimBiDirectionalPairings(duplicatePairs);
+        // From here on, images are identified by their index in pictureSamplers
+        List<Fingerprint> fingerprints = getFingerprintsSharedByHash(pictureSamplers);
 
-        // DEBUG
-        System.out.println("# duplicate pairs: " + duplicatePairs.size());
-        for (SimplePair<SimplePair<String, String>, Double> duplicatePair : duplicatePairs) {
-            System.out.println(duplicatePair.getKey().getKey() + "," +
-                    duplicatePair.getKey().getValue() + "," +
-                    duplicatePair.getValue());
+        // Duplicate pairs are merged into groups as they're found
+        DuplicateGrouper duplicateGrouper = new DuplicateGrouper(pictureSamplers.size());
+        if (settings.getComparisonMode() == ComparisonMode.HASH_PREFILTER) {
+            findDuplicatesWithHashPrefilter(fingerprints, duplicateGrouper);
+
+        } else {
+            findDuplicates(getNearestNeighbours(fingerprints), duplicateGrouper);
         }
 
-        return duplicatePairs;
+        return duplicateGrouper.getGroups(pictureSamplers);
     }
 
-    private List<Sampler> loadImages(HashCacheManager hashCacheManager, String path) {
-
-        ThreadPool threadPool = new ThreadPool();
-
-        // Get all images, create samplers
-        List<File> pictures = FileHandlerUtil.getAllFiles(path, false);
-        List<Sampler> pictureSamplers = new SynArrayList<>();
-
-        for (File picture : pictures) {
-
-            // Simplify nested ifs when this all works
-            if ((!picture.getPath().endsWith(".au3")) && (!picture.isDirectory()) && (!picture.getPath().endsWith(".7z"))) {
-
-                try {
-                    InputStream is = new FileInputStream(picture);
-                    int hash = hashFile(is);
-
-                    if (hashCacheManager.isCached(hash, fingerprintConfig)) {
-                        // Cache hit
-                        Sampler loadedFromCache = hashCacheManager.loadCachedSampler(hash);
-
-                        // Make sure we associate the new file name with the cached fingerprint;
-                        // file names change, hashes tend not to unless the file was modified.
-                        loadedFromCache.setFile(picture);
-                        loadedFromCache.setFileMdHash(hash);
-                        pictureSamplers.add(loadedFromCache);
+    // Every image under the path that could be read, with its fingerprint
+    List<Sampler> loadImages(HashCacheManager hashCacheManager, ExactDuplicateDetector exactDuplicateDetector,
+                             String path) {
 
-                        this.progressBarFeedbackProxy.incrementProgressBar();
-
-                    } else {
-                        // Cache miss, pass in the hash as we've already calculated it
-                        System.out.println("Cache miss for " + picture.getName() + ", calculating fingerprint.");
-                        ImageLoaderWorker imageLoaderWorker =
-                                new ImageLoaderWorker( (SynArrayList<Sampler>) pictureSamplers, picture, fingerprintConfig,
-                                        this.progressBarFeedbackProxy, hash);
-
-                        threadPool.assignWorker(imageLoaderWorker);
-                    }
-                } catch (FileNotFoundException e) {
-                    throw new RuntimeException("Couldn't load file " + picture.getName());
-                }
+        System.out.println("Loading images");
+        EventTimer et = new EventTimer();
 
-            } else {
-                this.progressBarFeedbackProxy.incrementProgressBar();
-            }
-        }
+        // Images start loading while the rest of the folder is still being walked. Only one file of each set of
+        // identical files gets a sampler, the others get copies of it afterwards.
+        ImageIngestPipeline imageIngestPipeline = new ImageIngestPipeline(hashCacheManager, exactDuplicateDetector,
+                fingerprintConfig, settings.getThreads(), settings.getDecodeMemoryBudget(), this.feedbackProxy);
+        imageIngestPipeline.start();
 
-        threadPool.notifyAllTasksGiven();
+        new ImageFileWalker(settings.getThreads()).walk(new File(path), settings.isRecursive(),
+                imageIngestPipeline::submit);
 
-        System.out.println("Waiting for threads to finish loading images");
-        EventTimer et = new EventTimer();
-
-        while (threadPool.threadsRunning()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        List<Sampler> pictureSamplers = imageIngestPipeline.finish();
+        List<List<File>> exactDuplicates = imageIngestPipeline.getExactDuplicates();
 
         System.out.println("All images loaded in " + et.endTimer() + " ms");
 
-        // Re-cache Samplers
-        for (Sampler sampler : pictureSamplers) {
-            hashCacheManager.cache(sampler);
-        }
+        addExactCopies(pictureSamplers, exactDuplicates);
+
+        // The pipeline cached everything it fingerprinted, the copies share their hashes
         hashCacheManager.saveCache();
 
         return pictureSamplers;
     }
 
-    private NumberOrderedPairList<String> getAllComparisonScoresForImage(Sampler subject, List<Sampler> comparisonTargets) {
-
-        NumberOrderedPairList<String> comparisonScores = new NumberOrderedPairList<>();
-
-        for (Sampler comparisonTarget : comparisonTargets) {
-
-            if (subject != comparisonTarget) {
-                if (comparisonTarget.getFileMdHash() == subject.getFileMdHash()) {
+    // Keys files for the folder the cache belongs to
+    ExactDuplicateDetector newExactDuplicateDetector(HashCacheManager hashCacheManager) {
+        return new ExactDuplicateDetector(contentHasher, hashCacheManager.getFileStatCache(),
+                !ApplicationConfig.PARANOID_HASHING);
+    }
 
-                    // Handle hash matches differently: a 0 difference score means hash-identical
-                    // (this is impossible to achieve otherwise, even when comparing identical files)
-                    comparisonScores.add(comparisonTarget.getFile().getName(), 0);
+    // Per image, the EXPECT_MAX_DUPLICATES lowest comparison scores against other images (getDuplicates only needs
+    // those), keyed by image index
+    private List<BoundedScoreHeap> getNearestNeighbours(List<Fingerprint> fingerprints) {
 
-                } else {
+        EventTimer et = new EventTimer();
+        List<BoundedScoreHeap> nearestNeighbours;
 
-                    int comparisonScore = getComparisonScore(
-                            subject.getFingerprint(this.fingerprintConfig), subject.getNoiseScore(),
-                            comparisonTarget.getFingerprint(this.fingerprintConfig), comparisonTarget.getNoiseScore());
+        if (settings.getComparisonMode() == ComparisonMode.METRIC_INDEX) {
+            // One nearest-neighbour query per image instead of comparing every image against every other image
+            VantagePointTree index = new VantagePointTree(fingerprints, comparisonScorer);
 
-                    comparisonScores.add(comparisonTarget.getFile().getName(), comparisonScore);
-                }
+            nearestNeighbours = new ArrayList<>(fingerprints.size());
+            for (int i = 0; i < fingerprints.size(); i++) {
+                nearestNeighbours.add(index.getNearest(i, settings.getExpectMaxDuplicates()));
             }
-        }
-
-        return comparisonScores;
-    }
-
-    private List<SimplePair<SimplePair<String, String>, Double>> getDuplicates(
-            NumberOrderedPairList<String> comparisonScores, Sampler leftSampler) {
 
-        List<SimplePair<SimplePair<String, String>, Double>> duplicatePairs = new ArrayList<>();
+        } else {
+            nearestNeighbours = new TriangleComparisonEngine(comparisonScorer, settings.getThreads())
+                    .getNearestNeighbours(fingerprints, settings.getExpectMaxDuplicates());
+        }
 
-        // compare against to get an idea of how divergent the lowest score is WRT the nth score
-        double nthValue = comparisonScores.getNthSmallest(ApplicationConfig.EXPECT_MAX_DUPLICATES).getValue();
+        System.out.println(settings.getComparisonMode() + " comparison of " + fingerprints.size()
+                + " images took " + et.endTimer() + " ms");
 
-        for (SimplePair<String, Integer> comparisonScore : comparisonScores.toList()) {
+        return nearestNeighbours;
+    }
 
-            double diff = comparisonScore.getValue();
-            double divergenceRatio = (nthValue / diff);
+    // Only pairs with similar perceptual hashes get scored at all
+    private void findDuplicatesWithHashPrefilter(List<Fingerprint> fingerprints, DuplicateGrouper duplicateGrouper) {
 
-            if (divergenceRatio > ApplicationConfig.DIVERGENCE_TOLERANCE_FACTOR) {
+        EventTimer et = new EventTimer();
 
-                // TODO: Probably refactor away SimplePair/SimpleTriple usage and use bespoke classes
-                duplicatePairs.add(new SimplePair<>(
-                        new SimplePair<>(comparisonScore.getKey(), leftSampler.getFile().getName()),
-                        diff));
-            }
+        long[] perceptualHashes = new long[fingerprints.size()];
+        for (int i = 0; i < fingerprints.size(); i++) {
+            perceptualHashes[i] = fingerprints.get(i).getPerceptualHash();
         }
 
-        return duplicatePairs;
-    }
+        new MultiIndexHashTable(perceptualHashes).forEachCandidatePair(
+                settings.getHashPrefilterMaxHammingDistance(), (leftId, rightId, hammingDistance) -> {
 
-    private void trimBiDirectionalPairings(List<SimplePair<SimplePair<String, String>, Double>> duplicatePairs) {
+                    int comparisonScore = comparisonScorer.getComparisonScore(fingerprints.get(leftId),
+                            fingerprints.get(rightId), settings.getHashPrefilterMaxScore());
 
-        // trim bi-directional pairings
-        // (e.g. omit one pairing in case of two alternating pairs: 123->duplicates->456 and 456->duplicates->123)
-        boolean fullPass = false;
-        while (!fullPass) {
+                    if (comparisonScore <= settings.getHashPrefilterMaxScore()) {
+                        duplicateGrouper.accept(leftId, rightId, comparisonScore);
+                    }
+                });
 
-            fullPass = true;
+        System.out.println("Hash prefiltered comparison of " + fingerprints.size() + " images took "
+                + et.endTimer() + " ms");
+    }
 
-            for (int i = 0; i < duplicatePairs.size(); i++) {
-                if (fullPass) {
+    // Files with the same hash share one fingerprint, so they score 0 against each other
+    // (fingerprints calculated separately would differ slightly)
+    private List<Fingerprint> getFingerprintsSharedByHash(List<Sampler> samplers) {
+        Map<Long, Fingerprint> fingerprintsByHash = new HashMap<>();
+        List<Fingerprint> fingerprints = new ArrayList<>(samplers.size());
 
-                    String filename1 = duplicatePairs.get(i).getKey().getKey();
-                    String filename2 = duplicatePairs.get(i).getKey().getValue();
+        for (Sampler sampler : samplers) {
+            fingerprints.add(fingerprintsByHash.computeIfAbsent(sampler.getFileMdHash(),
+                    hash -> sampler.getFingerprint(this.fingerprintConfig)));
+        }
 
-                    for (int j = 0; j < duplicatePairs.size(); j++) {
-                        if (fullPass) {
+        return fingerprints;
+    }
 
-                            String filenameInner1 = duplicatePairs.get(j).getKey().getKey();
-                            String filenameInner2 = duplicatePairs.get(j).getKey().getValue();
+    private void findDuplicates(List<BoundedScoreHeap> nearestNeighbours, DuplicateGrouper duplicateGrouper) {
 
-                            if (filenameInner1.equals(filename2) && (filenameInner2.equals(filename1))) {
-                                duplicatePairs.remove(duplicatePairs.get(j));
+        for (int subjectId = 0; subjectId < nearestNeighbours.size(); subjectId++) {
 
-                                fullPass = false;
-                            }
-                        }
-                    }
-                }
+            // Both images of a pair can flag it, the grouper doesn't mind
+            for (SimplePair<Integer, Integer> duplicate : getDuplicatesAmongNearest(nearestNeighbours.get(subjectId),
+                    settings.getDivergenceToleranceFactor())) {
+                duplicateGrouper.accept(subjectId, duplicate.getKey(), duplicate.getValue());
             }
         }
     }
 
-    private static int hashFile(InputStream is) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            DigestInputStream dis = new DigestInputStream(is, md);
-            md.digest();
-            try {
-                return dis.available();
-
-            } catch (IOException e) {
-                throw new RuntimeException("Couldn't get MD5 hash from file.");
-            }
-
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Couldn't get MD5 algorithm for file hashing.");
+    /**
+     * @param comparisonScores An image's nearest neighbours
+     * @return The (id, score) pairs that stand out from the rest of the neighbours, i.e. the image's duplicates
+     */
+    static List<SimplePair<Integer, Integer>> getDuplicatesAmongNearest(BoundedScoreHeap comparisonScores,
+                                                                         double divergenceToleranceFactor) {
+        List<SimplePair<Integer, Integer>> duplicates = new ArrayList<>();
+        if (comparisonScores.isEmpty()) {
+            return duplicates;
         }
-    }
-
-    private int getComparisonScore(List<SimplePair<Point, SimpleColor>> leftFingerprint, double leftNoiseScore,
-                                   List<SimplePair<Point, SimpleColor>> rightFingerprint, double rightNoiseScore) {
 
-        if (leftFingerprint.size() == rightFingerprint.size()) {
-            // Do a simple comparison of pixel colors between two fingerprints
-            int score = getDifferenceScore(leftFingerprint, rightFingerprint);
-
-            // Now that we have the difference score, adjust for noise.
-            score = adjustScoreForNoise(score, leftNoiseScore, rightNoiseScore);
+        // compare against to get an idea of how divergent the lowest score is WRT the nth score
+        // (the heap holds the n lowest scores, or all of them for folders with fewer images than that)
+        double nthValue = comparisonScores.getWorstScore();
 
-            return score;
+        for (int i = 0; i < comparisonScores.size(); i++) {
 
-        } else {
-            System.out.println("fingerprints not same size");
+            int diff = comparisonScores.getScore(i);
+            double divergenceRatio = (nthValue / diff);
 
-            throw new RuntimeException("Fingerprints not same size");
+            if (divergenceRatio > divergenceToleranceFactor) {
+                duplicates.add(new SimplePair<>(comparisonScores.getId(i), diff));
+            }
         }
-    }
-
-    private int getDifferenceScore(List<SimplePair<Point, SimpleColor>> a, List<SimplePair<Point, SimpleColor>> b) {
-        int differenceScore = 0;
 
-        for (int i = 0; i < a.size(); i++) {
-            int redDiff = Math.abs(a.get(i).getValue().getRed() - b.get(i).getValue().getRed());
-            int greenDiff = Math.abs(a.get(i).getValue().getGreen() - b.get(i).getValue().getGreen());
-            int blueDiff = Math.abs(a.get(i).getValue().getBlue() - b.get(i).getValue().getBlue());
+        return duplicates;
+    }
 
-            int diff = redDiff + greenDiff + blueDiff;
-            differenceScore += diff;
+    // Every copy of an identical file gets its own copy of the sampler of the first file
+    // (if that could be loaded at all)
+    private void addExactCopies(List<Sampler> pictureSamplers, List<List<File>> exactDuplicates) {
+        Map<File, Sampler> samplersByFile = new HashMap<>();
+        for (Sampler sampler : pictureSamplers) {
+            samplersByFile.put(sampler.getFile(), sampler);
         }
 
-        return differenceScore;
-    }
+        for (List<File> identicalFiles : exactDuplicates) {
+            Sampler original = samplersByFile.get(identicalFiles.get(0));
 
-    // TODO: This appears to work without adding weighting parameters, thorough testing could improve this though
-    private int adjustScoreForNoise(int score, double leftNoiseScore, double rightNoiseScore) {
-
-        // We need to adjust our tolerance significantly when
-        // comparing two images that both have very low noise
-        double relativeNoiseFactor = 1.0 / Math.sqrt(Math.max(leftNoiseScore, rightNoiseScore));
+            for (File copy : identicalFiles.subList(1, identicalFiles.size())) {
+                if (original != null) {
+                    Sampler sampler = original.copy();
+                    sampler.setFile(copy);
+                    pictureSamplers.add(sampler);
+                }
 
-        return (int)(score * relativeNoiseFactor);
+                this.feedbackProxy.incrementProgressBar();
+            }
+        }
     }
 }
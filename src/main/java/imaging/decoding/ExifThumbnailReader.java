@@ -0,0 +1,146 @@
+package imaging.decoding;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Pulls the embedded thumbnail out of a JPEG's EXIF block (APP1), without reading the rest of the file.
+ * <p>
+ * The JDK's JPEG reader only knows about JFIF thumbnails, but nearly every camera writes its thumbnail to IFD1 of the
+ * EXIF data instead, as a small JPEG of its own.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ExifThumbnailReader {
+
+    // The EXIF block has to fit in one APP1 segment, which can't be bigger than 64KB
+    private static final int MAX_HEADER_BYTES = 128 * 1024;
+
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    /**
+     * @return The thumbnail as JPEG bytes, or null if the file has none (or isn't a JPEG with EXIF data)
+     */
+    public static byte[] readThumbnail(File file) throws IOException {
+        byte[] header;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            header = new byte[(int) Math.min(in.length(), MAX_HEADER_BYTES)];
+            in.readFully(header);
+        }
+
+        if ((header.length < 4) || (u8(header, 0) != 0xFF) || (u8(header, 1) != 0xD8)) {
+            return null;
+        }
+
+        // walk the marker segments up to the start of the image data, looking for "Exif\0\0"
+        int position = 2;
+        while (position + 4 <= header.length && u8(header, position) == 0xFF) {
+            int marker = u8(header, position + 1);
+            int length = (u8(header, position + 2) << 8) | u8(header, position + 3);
+
+            if ((marker == 0xDA) || (marker == 0xD9)) {
+                return null;
+            }
+
+            if ((marker == 0xE1) && (position + 10 <= header.length) && isExif(header, position + 4)) {
+                return readIfd1Thumbnail(header, position + 10, position + 2 + length);
+            }
+
+            position += 2 + length;
+        }
+
+        return null;
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private static byte[] readIfd1Thumbnail(byte[] data, int tiffStart, int segmentEnd) {
+        segmentEnd = Math.min(segmentEnd, data.length);
+        if (tiffStart + 8 > segmentEnd) {
+            return null;
+        }
+
+        boolean littleEndian = (data[tiffStart] == 'I') && (data[tiffStart + 1] == 'I');
+        Tiff tiff = new Tiff(data, tiffStart, segmentEnd, littleEndian);
+
+        // IFD0 describes the main image, the next IFD (IFD1) the thumbnail
+        long ifd0 = tiff.u32(4);
+        if (!tiff.has(ifd0, 2)) {
+            return null;
+        }
+        int ifd0Entries = tiff.u16(ifd0);
+        long ifd1 = tiff.has(ifd0 + 2 + 12L * ifd0Entries, 4) ? tiff.u32(ifd0 + 2 + 12L * ifd0Entries) : 0;
+        if ((ifd1 == 0) || !tiff.has(ifd1, 2)) {
+            return null;
+        }
+
+        long thumbnailOffset = -1;
+        long thumbnailLength = -1;
+        int ifd1Entries = tiff.u16(ifd1);
+        for (int i = 0; i < ifd1Entries; i++) {
+            long entry = ifd1 + 2 + 12L * i;
+            if (!tiff.has(entry, 12)) {
+                return null;
+            }
+
+            int tag = tiff.u16(entry);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                thumbnailOffset = tiff.u32(entry + 8);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                thumbnailLength = tiff.u32(entry + 8);
+            }
+        }
+
+        if ((thumbnailOffset < 0) || (thumbnailLength <= 0) || !tiff.has(thumbnailOffset, thumbnailLength)) {
+            return null;
+        }
+
+        byte[] thumbnail = new byte[(int) thumbnailLength];
+        System.arraycopy(data, (int) (tiffStart + thumbnailOffset), thumbnail, 0, thumbnail.length);
+        return thumbnail;
+    }
+
+    private static boolean isExif(byte[] data, int offset) {
+        return (data[offset] == 'E') && (data[offset + 1] == 'x') && (data[offset + 2] == 'i') && (data[offset + 3] == 'f')
+                && (data[offset + 4] == 0) && (data[offset + 5] == 0);
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    // Offsets within a TIFF structure are relative to its header, in either byte order
+    private static class Tiff {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private final boolean littleEndian;
+
+        private Tiff(byte[] data, int start, int end, boolean littleEndian) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.littleEndian = littleEndian;
+        }
+
+        private boolean has(long offset, long length) {
+            return (offset >= 0) && (start + offset + length <= end);
+        }
+
+        private int u16(long offset) {
+            int a = u8(data, (int) (start + offset));
+            int b = u8(data, (int) (start + offset + 1));
+            return littleEndian ? (b << 8) | a : (a << 8) | b;
+        }
+
+        private long u32(long offset) {
+            long a = u16(offset);
+            long b = u16(offset + 2);
+            return littleEndian ? (b << 16) | a : (a << 16) | b;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package imaging.decoding;
+
+import imaging.sampler.FingerprintConfig;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import main.ApplicationConfig;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes images at the lowest resolution a fingerprint still needs, rather than at full size.
+ * <p>
+ * Every block of the fingerprint grid should get at least {@link #MIN_BLOCK_SIZE} pixels each way. An embedded
+ * thumbnail with the image's aspect ratio is used if it is big enough, otherwise the image is decoded with
+ * {@link ImageReadParam#setSourceSubsampling} - a 24MP photo fingerprinted on a 10x10 grid only decodes every 25th
+ * pixel of every 25th row.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ImageDecoder {
+
+    // Smallest block (in decoded pixels) per grid cell, finer than this and the block averages start to drift
+    public static final int MIN_BLOCK_SIZE = 16;
+
+    // Thumbnails are often letterboxed to 4:3, those would add black bars to the fingerprint
+    private static final double MAX_THUMBNAIL_ASPECT_DIFFERENCE = 0.01;
+
+    /**
+     * @return The decoded image, or null if no reader recognises the file (like {@link ImageIO#read(File)})
+     */
+    public static BufferedImage decode(File file, FingerprintConfig fingerprintConfig) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int minWidth = getMinWidth(fingerprintConfig);
+                int minHeight = getMinHeight(fingerprintConfig);
+
+                BufferedImage thumbnail = readThumbnail(file, reader, width, height, minWidth, minHeight);
+                if (thumbnail != null) {
+                    return thumbnail;
+                }
+
+                int subsampling = getSubsampling(width, height, fingerprintConfig);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                return reader.read(0, param);
+
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return How many pixels each way an image is decoded at for fingerprints with this config: 1 (full size), or
+     * {@link #getSubsampling} with {@link ApplicationConfig#SUBSAMPLED_DECODING}
+     */
+    public static int getDecodeSubsampling(int width, int height, FingerprintConfig fingerprintConfig) {
+        return ApplicationConfig.SUBSAMPLED_DECODING ? getSubsampling(width, height, fingerprintConfig) : 1;
+    }
+
+    /**
+     * @return Whether the image is too big to decode at once, and has to go through a {@link StripDecoder}
+     */
+    public static boolean isDecodedInStrips(int width, int height, FingerprintConfig fingerprintConfig) {
+        long subsampling = getDecodeSubsampling(width, height, fingerprintConfig);
+        long decodedPixels = ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling);
+        return decodedPixels > ApplicationConfig.STRIP_DECODING_MIN_PIXELS;
+    }
+
+    /**
+     * @return How many pixels each way {@link #decode} keeps one of, for an image of this size (thumbnails aside)
+     */
+    public static int getSubsampling(int width, int height, FingerprintConfig fingerprintConfig) {
+        return Math.max(1, Math.min(width / getMinWidth(fingerprintConfig), height / getMinHeight(fingerprintConfig)));
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private static int getMinWidth(FingerprintConfig fingerprintConfig) {
+        return fingerprintConfig.getAccuracyX() * MIN_BLOCK_SIZE;
+    }
+
+    private static int getMinHeight(FingerprintConfig fingerprintConfig) {
+        return fingerprintConfig.getAccuracyY() * MIN_BLOCK_SIZE;
+    }
+
+    // An EXIF thumbnail or a JFIF one (via the reader), whichever is usable - null if neither
+    private static BufferedImage readThumbnail(File file, ImageReader reader, int width, int height,
+                                               int minWidth, int minHeight) throws IOException {
+
+        if (!"jpeg".equalsIgnoreCase(reader.getFormatName())) {
+            return null;
+        }
+
+        byte[] exifThumbnail = ExifThumbnailReader.readThumbnail(file);
+        if (exifThumbnail != null) {
+            BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(exifThumbnail));
+            if ((thumbnail != null) && isUsable(thumbnail.getWidth(), thumbnail.getHeight(),
+                    width, height, minWidth, minHeight)) {
+                return thumbnail;
+            }
+        }
+
+        try {
+            for (int i = 0; i < reader.getNumThumbnails(0); i++) {
+                if (isUsable(reader.getThumbnailWidth(0, i), reader.getThumbnailHeight(0, i),
+                        width, height, minWidth, minHeight)) {
+                    return reader.readThumbnail(0, i);
+                }
+            }
+
+        } catch (IIOException e) {
+            // the JDK's metadata parser is strict (camera files tend to have no JFIF marker), the image itself is fine
+        }
+
+        return null;
+    }
+
+    private static boolean isUsable(int thumbnailWidth, int thumbnailHeight, int width, int height,
+                                    int minWidth, int minHeight) {
+        double aspect = (double) width / height;
+        double thumbnailAspect = (double) thumbnailWidth / thumbnailHeight;
+
+        return (thumbnailWidth >= minWidth) && (thumbnailHeight >= minHeight)
+                && (Math.abs(thumbnailAspect - aspect) <= aspect * MAX_THUMBNAIL_ASPECT_DIFFERENCE);
+    }
+}
@@ -0,0 +1,126 @@
+package imaging.decoding;
+
+import lombok.Getter;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * What an image file is, found without decoding it: the format from its magic bytes, and the dimensions from its
+ * {@link ImageReader} (which only has to parse the header for those). The file is opened once for both.
+ * <p>
+ * The formats the JDK decodes are recognised by their magic bytes. Anything else is left to the installed ImageIO
+ * plugins (WebP, JPEG 2000...), like {@link ImageIO#read} would, so it's read if any of them recognises it.
+ */
+@Getter
+public class ImageHeader {
+
+    public enum Format {
+        JPEG, PNG, GIF, BMP, TIFF,
+
+        // recognised by an ImageIO plugin, not by its magic bytes
+        OTHER
+    }
+
+    // The longest magic number below
+    private static final int MAGIC_BYTES = 4;
+
+    private final File file;
+    private final Format format;
+    private final int width;
+    private final int height;
+
+    private ImageHeader(File file, Format format, int width, int height) {
+        this.file = file;
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return The header, or null if the file isn't an image we can decode
+     * @throws IOException If the file couldn't be read at all
+     */
+    public static ImageHeader probe(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+
+            Format format = readFormat(input);
+            input.seek(0);
+
+            Iterator<ImageReader> readers = (format != null)
+                    ? ImageIO.getImageReadersByFormatName(format.name()) : null;
+            if ((readers == null) || !readers.hasNext()) {
+                // no magic bytes we know (or no reader for them), ask every reader there is
+                readers = ImageIO.getImageReaders(input);
+                if (format == null) {
+                    format = Format.OTHER;
+                }
+            }
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new ImageHeader(file, format, reader.getWidth(0), reader.getHeight(0));
+
+            } catch (IOException | RuntimeException e) {
+                // recognised, but truncated or corrupt past that
+                return null;
+
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private static Format readFormat(ImageInputStream input) throws IOException {
+        byte[] magic = new byte[MAGIC_BYTES];
+        int read = 0;
+        int count;
+        while ((read < magic.length) && ((count = input.read(magic, read, magic.length - read)) > 0)) {
+            read += count;
+        }
+
+        if (read < MAGIC_BYTES) {
+            return null;
+        }
+
+        if (matches(magic, 0xFF, 0xD8, 0xFF)) {
+            return Format.JPEG;
+        }
+        if (matches(magic, 0x89, 'P', 'N', 'G')) {
+            return Format.PNG;
+        }
+        if (matches(magic, 'G', 'I', 'F', '8')) {
+            return Format.GIF;
+        }
+        if (matches(magic, 'B', 'M')) {
+            return Format.BMP;
+        }
+        if (matches(magic, 'I', 'I', 0x2A, 0x00) || matches(magic, 'M', 'M', 0x00, 0x2A)) {
+            // only has a JDK reader from Java 9 on, before that only with a plugin
+            return Format.TIFF;
+        }
+        return null;
+    }
+
+    private static boolean matches(byte[] bytes, int... magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if ((bytes[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,157 @@
+package imaging.decoding;
+
+import imaging.raster.RasterReader;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes an image a strip of rows at a time, with {@link ImageReadParam#setSourceRegion}, for images whose whole
+ * raster wouldn't fit in memory (or in an array). Only one strip per thread is ever held.
+ * <p>
+ * Strips can be decoded by several threads at once, each with its own reader, so they can arrive in any order. Tiled
+ * formats (TIFF, with a reader plugin) read just the tiles a strip needs. Sequential ones (PNG, JPEG) have to get
+ * through all the data before a strip on every read, which is why strips are big.
+ */
+public class StripDecoder {
+
+    // Decoded pixels per strip
+    public static final int STRIP_PIXELS = 8_000_000;
+
+    @FunctionalInterface
+    public interface StripConsumer {
+
+        /**
+         * Called from the decoding threads, maybe concurrently
+         *
+         * @param strip    The strip's pixels, as wide as the decoded image
+         * @param firstRow The strip's first row in the decoded image
+         */
+        void accept(RasterReader strip, int firstRow);
+    }
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int subsampling;
+
+    // Rows of the source image per strip, a whole number of subsampled rows so every strip starts on one
+    private final int stripRows;
+
+    /**
+     * @param width       Width of the image, as its header says
+     * @param height      Height of the image, as its header says
+     * @param subsampling Keep one pixel of this many each way, see {@link ImageDecoder#getSubsampling}
+     */
+    public StripDecoder(File file, int width, int height, int subsampling) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.subsampling = subsampling;
+
+        int decodedRows = Math.max(1, STRIP_PIXELS / getDecodedWidth());
+        this.stripRows = (int) Math.min((long) decodedRows * subsampling, height);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getDecodedWidth() {
+        return (width + subsampling - 1) / subsampling;
+    }
+
+    public int getDecodedHeight() {
+        return (height + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * Decodes every strip once and hands it to the consumer, returns when all of them are done
+     *
+     * @param threads Strips decoded at once
+     */
+    public void decode(int threads, StripConsumer consumer) throws IOException {
+        int strips = (height + stripRows - 1) / stripRows;
+        threads = Math.max(1, Math.min(threads, strips));
+
+        if (threads == 1) {
+            decodeStrips(0, 1, consumer);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> decoders = new ArrayList<>();
+            for (int first = 0; first < threads; first++) {
+                int firstStrip = first;
+                int step = threads;
+                decoders.add(executor.submit(() -> {
+                    decodeStrips(firstStrip, step, consumer);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> decoder : decoders) {
+                decoder.get();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while decoding " + file.getName(), e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Couldn't decode " + file.getName(), e.getCause());
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    // Strips first, first + step, first + 2 * step... with one reader
+    private void decodeStrips(int first, int step, StripConsumer consumer) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = (input != null) ? ImageIO.getImageReaders(input) : null;
+            if ((readers == null) || !readers.hasNext()) {
+                throw new IOException("No reader for " + file.getName());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                // not seek forward only, sequential readers go back to the start of the data for every strip
+                reader.setInput(input, false, true);
+
+                for (int strip = first; (long) strip * stripRows < height; strip += step) {
+                    int top = strip * stripRows;
+
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(new Rectangle(0, top, width, Math.min(stripRows, height - top)));
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                    BufferedImage image = reader.read(0, param);
+                    consumer.accept(RasterReader.of(image), top / subsampling);
+                }
+
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
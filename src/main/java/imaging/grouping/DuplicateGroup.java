@@ -0,0 +1,28 @@
+package imaging.grouping;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A set of images that are all (transitively) duplicates of each other.
+ */
+@Getter
+@AllArgsConstructor
+public class DuplicateGroup {
+
+    // the member the others are reported against (currently the first one loaded)
+    private final File representative;
+
+    // every image in the group, representative first
+    private final List<File> members;
+
+    // highest comparison score of any duplicate pair that joined the group
+    private final int maxScore;
+
+    // every image in the group has the same content hash, i.e. they're copies of the same file (a score of 0 only
+    // means the same pixels)
+    private final boolean binarySame;
+}
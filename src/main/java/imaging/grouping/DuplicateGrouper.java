@@ -0,0 +1,105 @@
+package imaging.grouping;
+
+import imaging.sampler.Sampler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges duplicate pairs into groups as they are found, with a union-find over image ids (indices into the sampler
+ * list). Memory is proportional to the number of images, however many pairs are reported.
+ * <p>
+ * Not thread-safe, report pairs from one thread.
+ */
+public class DuplicateGrouper {
+
+    private final int[] parent;
+    private final int[] size;
+
+    // per root: highest score of a pair within its group
+    private final int[] maxScore;
+
+    public DuplicateGrouper(int imageCount) {
+        this.parent = new int[imageCount];
+        this.size = new int[imageCount];
+        this.maxScore = new int[imageCount];
+
+        for (int i = 0; i < imageCount; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+    }
+
+    public void accept(int leftId, int rightId, int score) {
+        int leftRoot = find(leftId);
+        int rightRoot = find(rightId);
+
+        if (leftRoot == rightRoot) {
+            maxScore[leftRoot] = Math.max(maxScore[leftRoot], score);
+            return;
+        }
+
+        // union by size
+        if (size[leftRoot] < size[rightRoot]) {
+            int swap = leftRoot;
+            leftRoot = rightRoot;
+            rightRoot = swap;
+        }
+
+        parent[rightRoot] = leftRoot;
+        size[leftRoot] += size[rightRoot];
+        maxScore[leftRoot] = Math.max(Math.max(maxScore[leftRoot], maxScore[rightRoot]), score);
+    }
+
+    /**
+     * @param samplers The samplers the ids refer to, with their file hashes set
+     * @return Every group of two or more images, ordered by their first member's id
+     */
+    public List<DuplicateGroup> getGroups(List<Sampler> samplers) {
+        // members of each group, collected at its root, and whether they all have the first one's hash
+        List<List<File>> membersByRoot = new ArrayList<>(parent.length);
+        for (int i = 0; i < parent.length; i++) {
+            membersByRoot.add(null);
+        }
+        long[] firstHash = new long[parent.length];
+        boolean[] binarySame = new boolean[parent.length];
+
+        List<Integer> roots = new ArrayList<>();
+        for (int id = 0; id < parent.length; id++) {
+            int root = find(id);
+            if (size[root] < 2) {
+                continue;
+            }
+
+            Sampler sampler = samplers.get(id);
+            if (membersByRoot.get(root) == null) {
+                membersByRoot.set(root, new ArrayList<>(size[root]));
+                roots.add(root);
+                firstHash[root] = sampler.getFileMdHash();
+                binarySame[root] = true;
+
+            } else if (sampler.getFileMdHash() != firstHash[root]) {
+                binarySame[root] = false;
+            }
+            membersByRoot.get(root).add(sampler.getFile());
+        }
+
+        List<DuplicateGroup> groups = new ArrayList<>(roots.size());
+        for (int root : roots) {
+            List<File> members = membersByRoot.get(root);
+            groups.add(new DuplicateGroup(members.get(0), members, maxScore[root], binarySame[root]));
+        }
+
+        return groups;
+    }
+
+    // with path halving
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+}
@@ -0,0 +1,152 @@
+package imaging.index;
+
+import imaging.sampler.Fingerprint;
+import imaging.scoring.BoundedScoreHeap;
+import imaging.scoring.ComparisonScorer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A {@link VantagePointTree} that fingerprints can be added to and removed from, for indexes that live on while the
+ * images change.
+ * <p>
+ * The tree is an immutable snapshot. Fingerprints added since it was built sit in an overflow list that every query
+ * scans, removed ones are tombstoned and skipped. Once either makes up too much of the index, the snapshot is rebuilt
+ * from everything that's still in it - so adds and removes stay cheap, and queries stay close to tree speed.
+ * <p>
+ * Ids are handed out by {@link #add} and never reused. Not thread-safe.
+ */
+public class IncrementalIndex {
+
+    // Overflow scanned before it's worth rebuilding, at least this, or this share of the index
+    private static final int MIN_OVERFLOW = 256;
+    private static final int OVERFLOW_SHARE = 8;
+
+    // Rebuild once this share of the snapshot is tombstones
+    private static final int TOMBSTONE_SHARE = 4;
+
+    private final ComparisonScorer comparisonScorer;
+
+    // By id, null once removed
+    private final List<Fingerprint> fingerprints = new ArrayList<>();
+    private final BitSet removed = new BitSet();
+    private int size = 0;
+
+    private VantagePointTree snapshot;
+
+    // Ids of the fingerprints in the snapshot, by their id in the tree
+    private int[] snapshotIds = new int[0];
+    private int snapshotTombstones = 0;
+
+    // Ids added since the snapshot was built (some may have been removed since)
+    private final List<Integer> overflow = new ArrayList<>();
+
+    public IncrementalIndex(ComparisonScorer comparisonScorer) {
+        this.comparisonScorer = comparisonScorer;
+        this.snapshot = new VantagePointTree(new ArrayList<>(), comparisonScorer);
+    }
+
+    /**
+     * @return The id of the fingerprint
+     */
+    public int add(Fingerprint fingerprint) {
+        int id = fingerprints.size();
+        fingerprints.add(fingerprint);
+        overflow.add(id);
+        size++;
+
+        if (overflow.size() > Math.max(MIN_OVERFLOW, size / OVERFLOW_SHARE)) {
+            rebuild();
+        }
+        return id;
+    }
+
+    /**
+     * Adds many fingerprints at once, with a single rebuild.
+     *
+     * @return The id of the first fingerprint, the others follow in order
+     */
+    public int addAll(List<Fingerprint> added) {
+        int firstId = fingerprints.size();
+        for (Fingerprint fingerprint : added) {
+            fingerprints.add(fingerprint);
+            size++;
+        }
+
+        rebuild();
+        return firstId;
+    }
+
+    public void remove(int id) {
+        if ((id >= fingerprints.size()) || removed.get(id)) {
+            return;
+        }
+
+        removed.set(id);
+        fingerprints.set(id, null);
+        size--;
+
+        if (overflow.remove(Integer.valueOf(id))) {
+            return;
+        }
+
+        snapshotTombstones++;
+        if (snapshotTombstones * TOMBSTONE_SHARE > snapshotIds.length) {
+            rebuild();
+        }
+    }
+
+    public Fingerprint get(int id) {
+        return fingerprints.get(id);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param excludeId Id to leave out of the result (e.g. the query itself), -1 for none
+     * @return The (at most) k ids with the lowest comparison scores against the query
+     */
+    public BoundedScoreHeap getNearest(Fingerprint query, int k, int excludeId) {
+        BoundedScoreHeap treeNearest = snapshot.getNearest(query, k,
+                treeId -> (snapshotIds[treeId] == excludeId) || removed.get(snapshotIds[treeId]));
+
+        BoundedScoreHeap nearest = new BoundedScoreHeap(k);
+        for (int i = 0; i < treeNearest.size(); i++) {
+            nearest.offer(snapshotIds[treeNearest.getId(i)], treeNearest.getScore(i));
+        }
+
+        for (int id : overflow) {
+            if (id != excludeId) {
+                int score = comparisonScorer.getComparisonScore(query, fingerprints.get(id), nearest.getLimit());
+                if (score <= nearest.getLimit()) {
+                    nearest.offer(id, score);
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private void rebuild() {
+        List<Fingerprint> live = new ArrayList<>(size);
+        int[] liveIds = new int[size];
+
+        for (int id = 0; id < fingerprints.size(); id++) {
+            if (!removed.get(id)) {
+                liveIds[live.size()] = id;
+                live.add(fingerprints.get(id));
+            }
+        }
+
+        snapshot = new VantagePointTree(live, comparisonScorer);
+        snapshotIds = liveIds;
+        snapshotTombstones = 0;
+        overflow.clear();
+    }
+}
@@ -0,0 +1,140 @@
+package imaging.index;
+
+import imaging.sampler.PerceptualHash;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-index hashing over 64-bit perceptual hashes, finding every pair of hashes within a small Hamming distance
+ * without comparing all pairs.
+ * <p>
+ * Each hash is split into {@link #BANDS} 16-bit bands, with one table per band. If two hashes are within distance r
+ * then, by the pigeonhole principle, at least one of their bands is within r / BANDS of each other, so it's enough
+ * to look up each band's neighbours within that (much smaller) radius and verify the full distance afterwards.
+ * <p>
+ * The tables are compressed: ids sorted by band value, with an offset per possible band value.
+ */
+public class MultiIndexHashTable {
+
+    public static final int BANDS = 4;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final int BAND_VALUES = 1 << BAND_BITS;
+
+    public interface CandidatePairConsumer {
+        void accept(int leftId, int rightId, int hammingDistance);
+    }
+
+    private final long[] hashes;
+
+    // per band: offsets[band][value] .. offsets[band][value + 1] is the range of ids[band] with that band value
+    private final int[][] offsets = new int[BANDS][];
+    private final int[][] ids = new int[BANDS][];
+
+    /**
+     * @param hashes Perceptual hashes, identified by their index
+     */
+    public MultiIndexHashTable(long[] hashes) {
+        this.hashes = hashes;
+
+        for (int band = 0; band < BANDS; band++) {
+            int[] bandOffsets = new int[BAND_VALUES + 1];
+            for (long hash : hashes) {
+                bandOffsets[bandValue(hash, band) + 1]++;
+            }
+            for (int value = 0; value < BAND_VALUES; value++) {
+                bandOffsets[value + 1] += bandOffsets[value];
+            }
+
+            int[] next = new int[BAND_VALUES];
+            System.arraycopy(bandOffsets, 0, next, 0, BAND_VALUES);
+
+            int[] bandIds = new int[hashes.length];
+            for (int id = 0; id < hashes.length; id++) {
+                bandIds[next[bandValue(hashes[id], band)]++] = id;
+            }
+
+            offsets[band] = bandOffsets;
+            ids[band] = bandIds;
+        }
+    }
+
+    /**
+     * Reports every pair of ids (left < right) whose hashes are within maxDistance bits of each other, exactly once.
+     */
+    public void forEachCandidatePair(int maxDistance, CandidatePairConsumer consumer) {
+        for (int id = 0; id < hashes.length; id++) {
+            final int leftId = id;
+            forEachCandidate(hashes[id], maxDistance, (candidateId, distance) -> {
+                if (candidateId > leftId) {
+                    consumer.accept(leftId, candidateId, distance);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return The ids of every hash within maxDistance bits of the given hash, with their distances, as
+     * {id, distance} pairs
+     */
+    public List<int[]> getCandidates(long hash, int maxDistance) {
+        List<int[]> candidates = new ArrayList<>();
+        forEachCandidate(hash, maxDistance, (id, distance) -> candidates.add(new int[]{id, distance}));
+        return candidates;
+    }
+
+    private interface CandidateConsumer {
+        void accept(int id, int hammingDistance);
+    }
+
+    private void forEachCandidate(long hash, int maxDistance, CandidateConsumer consumer) {
+        int bandRadius = maxDistance / BANDS;
+
+        for (int band = 0; band < BANDS; band++) {
+            final int currentBand = band;
+            forEachNeighbourValue(bandValue(hash, band), bandRadius, 0, value -> {
+                for (int i = offsets[currentBand][value]; i < offsets[currentBand][value + 1]; i++) {
+                    int id = ids[currentBand][i];
+                    long candidate = hashes[id];
+
+                    // A pair is reported from the first band that finds it, later bands skip it
+                    if (firstMatchingBand(hash, candidate, bandRadius) == currentBand) {
+                        int distance = PerceptualHash.hammingDistance(hash, candidate);
+                        if (distance <= maxDistance) {
+                            consumer.accept(id, distance);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private interface BandValueConsumer {
+        void accept(int value);
+    }
+
+    // Every 16-bit value within radius bits of value (flipping bits at positions >= fromBit, to visit each once)
+    private static void forEachNeighbourValue(int value, int radius, int fromBit, BandValueConsumer consumer) {
+        consumer.accept(value);
+        if (radius == 0) {
+            return;
+        }
+
+        for (int bit = fromBit; bit < BAND_BITS; bit++) {
+            forEachNeighbourValue(value ^ (1 << bit), radius - 1, bit + 1, consumer);
+        }
+    }
+
+    private static int firstMatchingBand(long a, long b, int bandRadius) {
+        for (int band = 0; band < BANDS; band++) {
+            if (Integer.bitCount(bandValue(a, band) ^ bandValue(b, band)) <= bandRadius) {
+                return band;
+            }
+        }
+        return -1;
+    }
+
+    private static int bandValue(long hash, int band) {
+        return (int) ((hash >>> (band * BAND_BITS)) & (BAND_VALUES - 1));
+    }
+}
@@ -0,0 +1,276 @@
+package imaging.index;
+
+import imaging.sampler.Fingerprint;
+import imaging.scoring.BoundedScoreHeap;
+import imaging.scoring.ComparisonScorer;
+import imaging.util.SimplePair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Vantage-point tree over fingerprints, answering "k most similar" and "everything scoring within d" queries
+ * without comparing against every fingerprint.
+ * <p>
+ * The tree is built on the raw difference score (sum of channel differences), which is a metric, so subtrees can be
+ * pruned with the triangle inequality. Queries are answered in terms of the noise adjusted comparison score: the
+ * adjustment factor is never larger than the smallest noise factor in a subtree, which is kept per node, so every raw
+ * lower bound converts into a lower bound on the comparison score.
+ * <p>
+ * Fingerprints are identified by their index in the list the tree was built from. Nodes are stored in flat arrays,
+ * indexed by the position their vantage point ended up at: the inside subtree starts right after it, the outside
+ * subtree at {@code split[node]}.
+ */
+public class VantagePointTree {
+
+    // Ranges this small are just scanned
+    private static final int LEAF_SIZE = 8;
+    private static final int LEAF = -1;
+
+    private final Fingerprint[] fingerprints;
+    private final ComparisonScorer comparisonScorer;
+
+    // ids (indices into fingerprints) in tree order
+    private final int[] ids;
+
+    // per node, indexed by the start of the node's range
+    private final int[] end;
+    private final int[] split;
+    private final int[] radius;
+    private final double[] minNoiseFactor;
+
+    public VantagePointTree(List<Fingerprint> fingerprints, ComparisonScorer comparisonScorer) {
+        int size = fingerprints.size();
+
+        this.fingerprints = fingerprints.toArray(new Fingerprint[size]);
+        this.comparisonScorer = comparisonScorer;
+
+        this.ids = new int[size];
+        this.end = new int[size];
+        this.split = new int[size];
+        this.radius = new int[size];
+        this.minNoiseFactor = new double[size];
+
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+
+        if (size > 0) {
+            build(0, size, new int[size], new Random(size));
+        }
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    // ========= QUERIES ==============================================================================================
+
+    /**
+     * @param id Fingerprint to find neighbours for, it isn't included in the result
+     * @param k  Maximum number of neighbours
+     * @return The (at most) k fingerprint ids with the lowest comparison scores
+     */
+    public BoundedScoreHeap getNearest(int id, int k) {
+        return getNearest(fingerprints[id], k, id);
+    }
+
+    /**
+     * @param excludeId Id to leave out of the result (e.g. the query itself), -1 for none
+     */
+    public BoundedScoreHeap getNearest(Fingerprint query, int k, int excludeId) {
+        return getNearest(query, k, excluding(excludeId));
+    }
+
+    /**
+     * @param excluded Ids to leave out of the result
+     */
+    public BoundedScoreHeap getNearest(Fingerprint query, int k, IntPredicate excluded) {
+        Search search = new Search(query, excluded, new BoundedScoreHeap(k), ComparisonScorer.NO_LIMIT);
+        if (ids.length > 0) {
+            search(0, search);
+        }
+
+        return search.nearest;
+    }
+
+    /**
+     * @return Every fingerprint with a comparison score {@code <= maxScore} against the query, as (id, score) pairs
+     */
+    public List<SimplePair<Integer, Integer>> getWithinScore(Fingerprint query, int maxScore, int excludeId) {
+        Search search = new Search(query, excluding(excludeId), null, maxScore);
+        if (ids.length > 0) {
+            search(0, search);
+        }
+
+        return search.within;
+    }
+
+    private void search(int node, Search search) {
+        if (split[node] == LEAF) {
+            for (int i = node; i < end[node]; i++) {
+                search.offer(ids[i]);
+            }
+            return;
+        }
+
+        int vantageDistance = comparisonScorer.getDifferenceScore(search.query, fingerprints[ids[node]]);
+        search.offer(ids[node], vantageDistance);
+
+        int inside = node + 1;
+        int outside = split[node];
+        int mu = radius[node];
+
+        // inside holds distances <= mu from the vantage point, outside holds distances >= mu;
+        // visit the side the query falls in first, it's the likelier one to tighten the limit
+        if (vantageDistance < mu) {
+            searchChild(inside, vantageDistance - mu, search);
+            searchChild(outside, mu - vantageDistance, search);
+        } else {
+            searchChild(outside, mu - vantageDistance, search);
+            searchChild(inside, vantageDistance - mu, search);
+        }
+    }
+
+    private void searchChild(int child, int rawLowerBound, Search search) {
+        if (lowerBound(search, rawLowerBound, minNoiseFactor[child]) <= search.limit()) {
+            search(child, search);
+        }
+    }
+
+    private static IntPredicate excluding(int excludeId) {
+        return (excludeId < 0) ? id -> false : id -> id == excludeId;
+    }
+
+    private static int lowerBound(Search search, int rawLowerBound, double subtreeMinNoiseFactor) {
+        return (int) (Math.max(0, rawLowerBound) * Math.min(search.query.getNoiseFactor(), subtreeMinNoiseFactor));
+    }
+
+    // ========= CONSTRUCTION =========================================================================================
+
+    private void build(int lo, int hi, int[] distances, Random random) {
+        end[lo] = hi;
+
+        double minFactor = Double.MAX_VALUE;
+        for (int i = lo; i < hi; i++) {
+            minFactor = Math.min(minFactor, fingerprints[ids[i]].getNoiseFactor());
+        }
+        minNoiseFactor[lo] = minFactor;
+
+        if (hi - lo <= LEAF_SIZE) {
+            split[lo] = LEAF;
+            return;
+        }
+
+        // random vantage point, moved to the front of the range
+        swap(lo, lo + random.nextInt(hi - lo), distances);
+
+        Fingerprint vantagePoint = fingerprints[ids[lo]];
+        for (int i = lo + 1; i < hi; i++) {
+            distances[i] = comparisonScorer.getDifferenceScore(vantagePoint, fingerprints[ids[i]]);
+        }
+
+        // median split: [lo + 1, mid) <= mu <= [mid, hi)
+        int mid = lo + 1 + ((hi - lo - 1) / 2);
+        select(lo + 1, hi - 1, mid, distances);
+
+        radius[lo] = distances[mid];
+        split[lo] = mid;
+
+        build(lo + 1, mid, distances, random);
+        build(mid, hi, distances, random);
+    }
+
+    // Quickselect on distances (ids kept aligned), so position k holds the value it would have if sorted
+    private void select(int left, int right, int k, int[] distances) {
+        while (left < right) {
+            int pivot = distances[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--, distances);
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b, int[] distances) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+
+        int distance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = distance;
+    }
+
+    // ========= TYPES ================================================================================================
+
+    // State of a single query: either the k best so far, or everything within a fixed limit
+    private class Search {
+
+        private final Fingerprint query;
+        private final IntPredicate excluded;
+        private final int maxScore;
+
+        // k nearest queries
+        private final BoundedScoreHeap nearest;
+
+        // within score queries
+        private final List<SimplePair<Integer, Integer>> within = new ArrayList<>();
+
+        Search(Fingerprint query, IntPredicate excluded, BoundedScoreHeap nearest, int maxScore) {
+            this.query = query;
+            this.excluded = excluded;
+            this.nearest = nearest;
+            this.maxScore = maxScore;
+        }
+
+        // Highest score still of interest
+        int limit() {
+            return (nearest != null) ? Math.min(maxScore, nearest.getLimit()) : maxScore;
+        }
+
+        void offer(int id) {
+            if (!excluded.test(id)) {
+                accept(id, comparisonScorer.getComparisonScore(query, fingerprints[id], limit()));
+            }
+        }
+
+        void offer(int id, int rawDistance) {
+            if (!excluded.test(id)) {
+                accept(id, (int) (rawDistance * ComparisonScorer.getRelativeNoiseFactor(query, fingerprints[id])));
+            }
+        }
+
+        private void accept(int id, int score) {
+            if (score > limit()) {
+                return;
+            }
+
+            if (nearest != null) {
+                nearest.offer(id, score);
+            } else {
+                within.add(new SimplePair<>(id, score));
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package imaging.raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+/**
+ * 8 bit samples - TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY and the like
+ */
+class ByteComponentReader extends ComponentReader {
+
+    private final byte[] data;
+
+    ByteComponentReader(BufferedImage image) {
+        super(image);
+        this.data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    public int getRGB(int x, int y) {
+        int pixel = (y * scanlineStride) + (x * pixelStride);
+        return ((data[pixel + redOffset] & 0xFF) << 16)
+                | ((data[pixel + greenOffset] & 0xFF) << 8)
+                | (data[pixel + blueOffset] & 0xFF);
+    }
+
+    @Override
+    public void readRow(int y, int[] rgb) {
+        int pixel = y * scanlineStride;
+        for (int x = 0; x < width; x++) {
+            rgb[x] = ((data[pixel + redOffset] & 0xFF) << 16)
+                    | ((data[pixel + greenOffset] & 0xFF) << 8)
+                    | (data[pixel + blueOffset] & 0xFF);
+            pixel += pixelStride;
+        }
+    }
+}
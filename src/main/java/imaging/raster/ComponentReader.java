@@ -0,0 +1,60 @@
+package imaging.raster;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Interleaved samples, one per colour (and maybe alpha) - RGB in whatever order the bands are stored, or gray
+ */
+abstract class ComponentReader implements RasterReader {
+
+    protected final int width;
+    protected final int height;
+
+    protected final int pixelStride;
+    protected final int scanlineStride;
+
+    // Index of the first pixel's samples, gray images read the one sample three times
+    protected final int redOffset;
+    protected final int greenOffset;
+    protected final int blueOffset;
+
+    ComponentReader(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.pixelStride = sampleModel.getPixelStride();
+        this.scanlineStride = sampleModel.getScanlineStride();
+
+        // rasters can be a window onto a bigger buffer
+        int origin = raster.getDataBuffer().getOffset()
+                - (raster.getSampleModelTranslateY() * scanlineStride)
+                - (raster.getSampleModelTranslateX() * pixelStride);
+
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        boolean gray = RasterReader.isGray(image.getColorModel().getColorSpace());
+
+        this.redOffset = origin + bandOffsets[0];
+        this.greenOffset = origin + bandOffsets[gray ? 0 : 1];
+        this.blueOffset = origin + bandOffsets[gray ? 0 : 2];
+    }
+
+    static boolean isSupported(ColorSpace colorSpace, int bands) {
+        return RasterReader.isGray(colorSpace) ? (bands <= 2)
+                : ((colorSpace.getType() == ColorSpace.TYPE_RGB) && (bands >= 3));
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+}
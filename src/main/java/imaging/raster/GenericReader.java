@@ -0,0 +1,39 @@
+package imaging.raster;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Anything the other readers don't know (CMYK, 565, 16 bit palettes...), through {@link BufferedImage#getRGB} and
+ * its colour conversion. Slow, but rare.
+ */
+class GenericReader implements RasterReader {
+
+    private final BufferedImage image;
+
+    GenericReader(BufferedImage image) {
+        this.image = image;
+    }
+
+    @Override
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    @Override
+    public int getRGB(int x, int y) {
+        return image.getRGB(x, y) & 0xFFFFFF;
+    }
+
+    @Override
+    public void readRow(int y, int[] rgb) {
+        image.getRGB(0, y, image.getWidth(), 1, rgb, 0, image.getWidth());
+        for (int x = 0; x < image.getWidth(); x++) {
+            rgb[x] &= 0xFFFFFF;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package imaging.raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Palette images (GIFs, palette PNGs) - 8 bit indices a byte each, or 1, 2 and 4 bit ones packed into bytes.
+ * Indices of 8 bits always come one per byte (pixel stride 1), {@link RasterReader#of} checks.
+ */
+class IndexedReader implements RasterReader {
+
+    private final int width;
+    private final int height;
+
+    private final byte[] data;
+    private final int scanlineStride;
+    private final int rowOrigin;
+
+    // Bits into each row where its first index starts, and between indices
+    private final int rowBitOffset;
+    private final int bitsPerPixel;
+    private final int indexMask;
+
+    // Palette as 0xRRGGBB, with room for every index the bits can hold (those past the palette are black)
+    private final int[] palette;
+
+    IndexedReader(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.data = ((DataBufferByte) raster.getDataBuffer()).getData();
+
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+
+        if (sampleModel instanceof MultiPixelPackedSampleModel) {
+            MultiPixelPackedSampleModel packed = (MultiPixelPackedSampleModel) sampleModel;
+            this.bitsPerPixel = packed.getPixelBitStride();
+            this.scanlineStride = packed.getScanlineStride();
+            this.rowBitOffset = packed.getDataBitOffset() - (translateX * bitsPerPixel);
+        } else {
+            PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) sampleModel;
+            this.bitsPerPixel = 8;
+            this.scanlineStride = interleaved.getScanlineStride();
+            this.rowBitOffset = (interleaved.getBandOffsets()[0] - translateX) * 8;
+        }
+
+        // the buffer's offset and the vertical translation are whole bytes, they go on every row's index
+        this.rowOrigin = raster.getDataBuffer().getOffset() - (translateY * scanlineStride);
+
+        this.indexMask = (1 << bitsPerPixel) - 1;
+
+        IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+        this.palette = new int[Math.max(1 << bitsPerPixel, colorModel.getMapSize())];
+        colorModel.getRGBs(palette);
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] &= 0xFFFFFF;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getRGB(int x, int y) {
+        return palette[getIndex(rowOrigin + (y * scanlineStride), rowBitOffset + (x * bitsPerPixel))];
+    }
+
+    @Override
+    public void readRow(int y, int[] rgb) {
+        int row = rowOrigin + (y * scanlineStride);
+        int bit = rowBitOffset;
+
+        if (bitsPerPixel == 8) {
+            int pixel = row + (bit >> 3);
+            for (int x = 0; x < width; x++) {
+                rgb[x] = palette[data[pixel + x] & indexMask];
+            }
+            return;
+        }
+
+        for (int x = 0; x < width; x++) {
+            rgb[x] = palette[getIndex(row, bit)];
+            bit += bitsPerPixel;
+        }
+    }
+
+    // Indices are packed from the high bits of each byte down
+    private int getIndex(int row, int bit) {
+        return (data[row + (bit >> 3)] >> (8 - (bit & 7) - bitsPerPixel)) & indexMask;
+    }
+}
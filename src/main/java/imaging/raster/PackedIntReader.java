@@ -0,0 +1,80 @@
+package imaging.raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A pixel per int, 8 bits per colour - TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_BGR
+ */
+class PackedIntReader implements RasterReader {
+
+    private final int width;
+    private final int height;
+
+    private final int[] data;
+    private final int origin;
+    private final int scanlineStride;
+
+    private final int redShift;
+    private final int greenShift;
+    private final int blueShift;
+
+    PackedIntReader(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DirectColorModel colorModel = (DirectColorModel) image.getColorModel();
+
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        this.scanlineStride = sampleModel.getScanlineStride();
+        this.origin = raster.getDataBuffer().getOffset()
+                - (raster.getSampleModelTranslateY() * scanlineStride) - raster.getSampleModelTranslateX();
+
+        this.redShift = Integer.numberOfTrailingZeros(colorModel.getRedMask());
+        this.greenShift = Integer.numberOfTrailingZeros(colorModel.getGreenMask());
+        this.blueShift = Integer.numberOfTrailingZeros(colorModel.getBlueMask());
+    }
+
+    // Only 8 bit colours, 565 and the like go the slow way
+    static boolean isSupported(DirectColorModel colorModel) {
+        return isByteMask(colorModel.getRedMask()) && isByteMask(colorModel.getGreenMask())
+                && isByteMask(colorModel.getBlueMask());
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getRGB(int x, int y) {
+        return toRGB(data[origin + (y * scanlineStride) + x]);
+    }
+
+    @Override
+    public void readRow(int y, int[] rgb) {
+        int pixel = origin + (y * scanlineStride);
+        for (int x = 0; x < width; x++) {
+            rgb[x] = toRGB(data[pixel + x]);
+        }
+    }
+
+    private int toRGB(int packed) {
+        return (((packed >>> redShift) & 0xFF) << 16)
+                | (((packed >>> greenShift) & 0xFF) << 8)
+                | ((packed >>> blueShift) & 0xFF);
+    }
+
+    private static boolean isByteMask(int mask) {
+        return (mask >>> Integer.numberOfTrailingZeros(mask)) == 0xFF;
+    }
+}
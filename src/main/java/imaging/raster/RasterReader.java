@@ -0,0 +1,80 @@
+package imaging.raster;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads the pixels of a decoded image as packed 0xRRGGBB ints (alpha dropped), straight out of its data buffer.
+ * <p>
+ * ImageIO hands back whatever layout suits the file - interleaved bytes for most JPEGs, packed ints, 16 bit samples
+ * for deep PNGs, palettes for GIFs. {@link #of} picks a reader for the layout, so the fingerprint and noise kernels
+ * see one format without the image being converted (or {@link BufferedImage#getRGB} copying it) first. Readers
+ * don't allocate, and can be shared between threads as long as each has its own row buffer.
+ */
+public interface RasterReader {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @return The pixel as 0xRRGGBB
+     */
+    int getRGB(int x, int y);
+
+    /**
+     * @param rgb Gets the row's pixels as 0xRRGGBB, at least {@link #getWidth()} long
+     */
+    void readRow(int y, int[] rgb);
+
+    /**
+     * @return The fastest reader for the image's layout, one going through {@link BufferedImage#getRGB} if it's
+     * none of the known ones
+     */
+    static RasterReader of(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+        SampleModel sampleModel = image.getSampleModel();
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+
+        if (colorModel instanceof IndexColorModel) {
+            if ((dataBuffer instanceof DataBufferByte) && ((sampleModel instanceof MultiPixelPackedSampleModel)
+                    || ((sampleModel instanceof PixelInterleavedSampleModel) && (sampleModel.getNumBands() == 1)
+                    && (((PixelInterleavedSampleModel) sampleModel).getPixelStride() == 1)))) {
+                return new IndexedReader(image);
+            }
+
+        } else if ((colorModel instanceof DirectColorModel) && (dataBuffer instanceof DataBufferInt)
+                && (sampleModel instanceof SinglePixelPackedSampleModel)) {
+            if (PackedIntReader.isSupported((DirectColorModel) colorModel)) {
+                return new PackedIntReader(image);
+            }
+
+        } else if ((colorModel instanceof ComponentColorModel) && (sampleModel instanceof PixelInterleavedSampleModel)
+                && ComponentReader.isSupported(colorModel.getColorSpace(), sampleModel.getNumBands())) {
+            if (dataBuffer instanceof DataBufferByte) {
+                return new ByteComponentReader(image);
+            }
+            if (dataBuffer instanceof DataBufferUShort) {
+                return new UShortComponentReader(image);
+            }
+        }
+
+        return new GenericReader(image);
+    }
+
+    static boolean isGray(ColorSpace colorSpace) {
+        return colorSpace.getType() == ColorSpace.TYPE_GRAY;
+    }
+}
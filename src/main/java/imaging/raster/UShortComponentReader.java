@@ -0,0 +1,36 @@
+package imaging.raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferUShort;
+
+/**
+ * 16 bit samples (deep PNGs and TIFFs, TYPE_USHORT_GRAY), cut down to their top 8 bits
+ */
+class UShortComponentReader extends ComponentReader {
+
+    private final short[] data;
+
+    UShortComponentReader(BufferedImage image) {
+        super(image);
+        this.data = ((DataBufferUShort) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Override
+    public int getRGB(int x, int y) {
+        int pixel = (y * scanlineStride) + (x * pixelStride);
+        return ((data[pixel + redOffset] & 0xFF00) << 8)
+                | (data[pixel + greenOffset] & 0xFF00)
+                | ((data[pixel + blueOffset] & 0xFF00) >>> 8);
+    }
+
+    @Override
+    public void readRow(int y, int[] rgb) {
+        int pixel = y * scanlineStride;
+        for (int x = 0; x < width; x++) {
+            rgb[x] = ((data[pixel + redOffset] & 0xFF00) << 8)
+                    | (data[pixel + greenOffset] & 0xFF00)
+                    | ((data[pixel + blueOffset] & 0xFF00) >>> 8);
+            pixel += pixelStride;
+        }
+    }
+}
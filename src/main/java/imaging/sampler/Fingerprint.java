@@ -0,0 +1,163 @@
+package imaging.sampler;
+
+import lombok.Getter;
+
+/**
+ * Packed fingerprint of an image: the average colour of every block of the sampling grid, row-major by grid position
+ * as consecutive unsigned red, green and blue channels. The channels are packed eight per long (channel i at bits
+ * 8 * (i % 8), zero padded), one flat array per image that word-at-a-time kernels can use as it is.
+ * <p>
+ * Fingerprints are immutable, so copies of a {@link Sampler} can share the same instance.
+ */
+public final class Fingerprint {
+
+    // ========= CONSTANTS ============================================================================================
+
+    public static final int CHANNELS = 3;
+
+    // ========= ATTRIBUTES ===========================================================================================
+
+    @Getter
+    private final FingerprintConfig config;
+
+    private final long[] packedWords;
+
+    @Getter
+    private final double noiseScore;
+
+    // 64-bit dHash of the whole image, see PerceptualHash
+    @Getter
+    private final long perceptualHash;
+
+    // 1 / sqrt(noiseScore), precomputed so comparisons don't need a sqrt per pair.
+    // The noise adjustment of a pair is the smaller of the two factors (i.e. the factor of the noisier image).
+    @Getter
+    private final double noiseFactor;
+
+    // ========= CONSTRUCTOR ==========================================================================================
+
+    /**
+     * @param config     The configuration the fingerprint was sampled with
+     * @param blocks     Block colours, {@link #CHANNELS} bytes per block, row-major (packed, not kept)
+     * @param noiseScore Noise score of the whole image, see {@link imaging.scoring.ImageNoiseScorer}
+     * @param perceptualHash 64-bit perceptual hash of the whole image, see {@link PerceptualHash}
+     */
+    public Fingerprint(FingerprintConfig config, byte[] blocks, double noiseScore, long perceptualHash) {
+        if (blocks.length != config.getAccuracyX() * config.getAccuracyY() * CHANNELS) {
+            throw new IllegalArgumentException("Fingerprint has " + blocks.length + " bytes, expected "
+                    + (config.getAccuracyX() * config.getAccuracyY() * CHANNELS) + " for a "
+                    + config.getAccuracyX() + "x" + config.getAccuracyY() + " grid");
+        }
+
+        this.config = config;
+        this.packedWords = packWords(blocks);
+        this.noiseScore = noiseScore;
+        this.perceptualHash = perceptualHash;
+        this.noiseFactor = 1.0 / Math.sqrt(noiseScore);
+    }
+
+    // ========= ACCESSORS ============================================================================================
+
+    public int getBlockCount() {
+        return config.getBlockCount();
+    }
+
+    /**
+     * @return {@link #CHANNELS} per block
+     */
+    public int getChannelCount() {
+        return config.getBlockCount() * CHANNELS;
+    }
+
+    /**
+     * @param channel Index into the block colours, {@link #CHANNELS} per block
+     */
+    public int getChannel(int channel) {
+        return (int) (packedWords[channel >>> 3] >>> ((channel & 7) << 3)) & 0xFF;
+    }
+
+    public int getRed(int block) {
+        return getChannel(block * CHANNELS);
+    }
+
+    public int getGreen(int block) {
+        return getChannel(block * CHANNELS + 1);
+    }
+
+    public int getBlue(int block) {
+        return getChannel(block * CHANNELS + 2);
+    }
+
+    /**
+     * @return The block colours unpacked, {@link #CHANNELS} bytes per block (a new array every time)
+     */
+    public byte[] getBlocks() {
+        byte[] blocks = new byte[getChannelCount()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = (byte) getChannel(i);
+        }
+        return blocks;
+    }
+
+    /**
+     * @return The block colours packed eight channels per long, must not be modified
+     */
+    public long[] getPackedWords() {
+        return packedWords;
+    }
+
+    // ========= DERIVING ============================================================================================
+
+    /**
+     * Averages blocks of this fingerprint into the coarser grid of the given config, as if the image had been
+     * sampled with that config. The noise score and perceptual hash cover the whole image, so they carry over.
+     *
+     * @throws IllegalArgumentException If the config can't be derived from this one, see
+     *                                  {@link FingerprintConfig#isDerivableFrom}
+     */
+    public Fingerprint pooledTo(FingerprintConfig coarser) {
+        if (!coarser.isDerivableFrom(config)) {
+            throw new IllegalArgumentException("Can't pool a " + config.getAccuracyX() + "x" + config.getAccuracyY()
+                    + " fingerprint into " + coarser.getAccuracyX() + "x" + coarser.getAccuracyY());
+        }
+
+        int poolX = config.getAccuracyX() / coarser.getAccuracyX();
+        int poolY = config.getAccuracyY() / coarser.getAccuracyY();
+        int pooledBlocks = poolX * poolY;
+
+        byte[] pooled = new byte[coarser.getBlockCount() * CHANNELS];
+        int[] sums = new int[CHANNELS];
+
+        for (int blockY = 0; blockY < coarser.getAccuracyY(); blockY++) {
+            for (int blockX = 0; blockX < coarser.getAccuracyX(); blockX++) {
+                sums[0] = sums[1] = sums[2] = 0;
+
+                for (int y = blockY * poolY; y < (blockY + 1) * poolY; y++) {
+                    for (int x = blockX * poolX; x < (blockX + 1) * poolX; x++) {
+                        int fine = (y * config.getAccuracyX()) + x;
+                        sums[0] += getRed(fine);
+                        sums[1] += getGreen(fine);
+                        sums[2] += getBlue(fine);
+                    }
+                }
+
+                int offset = ((blockY * coarser.getAccuracyX()) + blockX) * CHANNELS;
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    pooled[offset + channel] = (byte) ((sums[channel] + (pooledBlocks / 2)) / pooledBlocks);
+                }
+            }
+        }
+
+        return new Fingerprint(coarser, pooled, noiseScore, perceptualHash);
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private static long[] packWords(byte[] blocks) {
+        long[] words = new long[(blocks.length + 7) / 8];
+        for (int i = 0; i < blocks.length; i++) {
+            words[i / 8] |= (blocks[i] & 0xFFL) << (8 * (i % 8));
+        }
+        return words;
+    }
+}
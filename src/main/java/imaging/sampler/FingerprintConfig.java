@@ -2,6 +2,12 @@ package imaging.sampler;
 
 public class FingerprintConfig {
 
+    // Grids finer than this don't improve matching, and only inflate fingerprints
+    public static final int MAX_ACCURACY = 100;
+
+    // passesPerBlock of exact configs: blocks are averaged over every pixel, instead of over random samples
+    public static final int EXACT = 0;
+
     private int accuracyX;
     private int accuracyY;
     private int passesPerBlock;
@@ -17,11 +23,48 @@ public class FingerprintConfig {
     }
 
     public FingerprintConfig(int accuracyX, int accuracyY, int passesPerBlock) {
-        this.accuracyX = accuracyX;
-        this.accuracyY = accuracyY;
+        this.accuracyX = Math.min(accuracyX, MAX_ACCURACY);
+        this.accuracyY = Math.min(accuracyY, MAX_ACCURACY);
         this.passesPerBlock = passesPerBlock;
     }
 
+    /**
+     * Every block is the exact average of its pixels (see {@link SummedAreaTable}), so fingerprints of the same image
+     * are always the same.
+     */
+    public static FingerprintConfig exact(int accuracyX, int accuracyY) {
+        return new FingerprintConfig(accuracyX, accuracyY, EXACT);
+    }
+
+    public boolean isExact() {
+        return passesPerBlock == EXACT;
+    }
+
+    /**
+     * A fingerprint with this config can be pooled from a finer one (see {@link Fingerprint#pooledTo}) when the finer
+     * grid splits every block of this one evenly, and its pooled blocks sampled at least as many pixels. Exact
+     * fingerprints only pool from exact ones, but sampled ones pool from either.
+     */
+    public boolean isDerivableFrom(FingerprintConfig finer) {
+        if ((finer.getAccuracyX() % accuracyX != 0) || (finer.getAccuracyY() % accuracyY != 0)) {
+            return false;
+        }
+
+        if (finer.isExact()) {
+            return true;
+        }
+        if (isExact()) {
+            return false;
+        }
+
+        long pooledBlocks = (finer.getAccuracyX() / accuracyX) * (finer.getAccuracyY() / accuracyY);
+        return finer.getPassesPerBlock() * pooledBlocks >= passesPerBlock;
+    }
+
+    public int getBlockCount() {
+        return accuracyX * accuracyY;
+    }
+
     public boolean equals(FingerprintConfig other) {
         if (other != null) {
             return ((other.getAccuracyX() == accuracyX) && (other.getAccuracyY() == getAccuracyY())
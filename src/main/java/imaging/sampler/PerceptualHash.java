@@ -0,0 +1,49 @@
+package imaging.sampler;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * 64-bit difference hash (dHash): the image is reduced to a 9x8 grid of brightness values, and each bit records
+ * whether a cell is darker than its right-hand neighbour. Similar images have hashes a small Hamming distance apart.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class PerceptualHash {
+
+    public static final int GRID_WIDTH = 9;
+    public static final int GRID_HEIGHT = 8;
+
+    /**
+     * @param luma {@link #GRID_WIDTH} x {@link #GRID_HEIGHT} brightness values, row-major
+     */
+    public static long fromLumaGrid(int[] luma) {
+        long hash = 0;
+        int bit = 0;
+
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int cell = (y * GRID_WIDTH) + x;
+                if (luma[cell] < luma[cell + 1]) {
+                    hash |= 1L << bit;
+                }
+                bit++;
+            }
+        }
+
+        return hash;
+    }
+
+    // ITU-R BT.601 weights, scaled by 1000
+    public static int luma(int red, int green, int blue) {
+        return (red * 299) + (green * 587) + (blue * 114);
+    }
+
+    // The same, for sums of many pixels
+    public static long luma(long red, long green, long blue) {
+        return (red * 299) + (green * 587) + (blue * 114);
+    }
+
+    public static int hammingDistance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
@@ -1,22 +1,21 @@
 package imaging.sampler;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import imaging.decoding.ImageDecoder;
+import imaging.decoding.ImageHeader;
+import imaging.decoding.StripDecoder;
+import imaging.raster.RasterReader;
 import imaging.scoring.ImageNoiseScorer;
-import imaging.util.PixelUtility;
-import imaging.util.SimpleColor;
-import imaging.util.SimplePair;
 import lombok.Getter;
 import lombok.Setter;
+import main.ApplicationConfig;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.SplittableRandom;
 
 // TODO: Simplify accessor use
 // TODO: (do we always get/set things like fingerprint, noiseScore and hash at the same time?)
@@ -27,32 +26,29 @@ public class Sampler {
     @Setter
     private File file;
 
+    // Decoded pixels, until the fingerprint is calculated
     @JsonIgnore
     @Getter
-    private byte[] pixels;
+    private RasterReader raster;
+
+    // Instead of the raster, for images too big to decode at once
+    private StripDecoder stripDecoder;
 
     @Getter
     @Setter
-    private int fileMdHash;
+    private long fileMdHash;
 
     @Getter
     private int height;
     @Getter
     private int width;
 
-    // cached fingerprint - this should be persisted to JSON
-    private List<SimplePair<Point, SimpleColor>> fingerprint = null;
-
-    @Getter
-    @Setter
-    private Double noiseScore = null;
-
-    // parameters that were called to produce the cached fingerprint - this should be persisted to JSON
+    // cached fingerprint, packed (block colours + noise score) - this should be persisted to the cache
     @Getter
-    private FingerprintConfig fingerprintConfig_cached;
+    private Fingerprint fingerprint = null;
 
     public Sampler(File file) {
-        this(file, null);
+        this(file, (InputStream) null);
     }
 
     public Sampler(File file, InputStream inputStream) {
@@ -67,9 +63,21 @@ public class Sampler {
                 image = ImageIO.read(file);
             }
 
-            this.height = image.getHeight();
-            this.width = image.getWidth();
-            this.pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            setImage(image);
+
+        } catch (IOException | NullPointerException e) {
+            System.out.print("Failed to create an ImageInputStream from file: " + file.getName());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Decodes the image only at the resolution needed for fingerprints with the given config, see {@link ImageDecoder}
+     */
+    public Sampler(File file, FingerprintConfig decodeFor) {
+        this.file = file;
+        try {
+            setImage(ImageDecoder.decode(file, decodeFor));
 
         } catch (IOException | NullPointerException e) {
             System.out.print("Failed to create an ImageInputStream from file: " + file.getName());
@@ -77,86 +85,242 @@ public class Sampler {
         }
     }
 
-    public Sampler(List<SimplePair<Point, SimpleColor>> fingerprint, FingerprintConfig config, Double noiseScore) {
+    /**
+     * For an image that's already decoded
+     */
+    public Sampler(File file, BufferedImage image) {
+        this.file = file;
+        setImage(image);
+    }
+
+    public Sampler(Fingerprint fingerprint) {
         this.fingerprint = fingerprint;
-        this.noiseScore = noiseScore;
-        fingerprintConfig_cached = config;
     }
 
-    public List<SimplePair<Point, SimpleColor>> getFingerprint(FingerprintConfig fingerprintConfig) {
-        if (!fingerprintConfig.equals(this.fingerprintConfig_cached)) {
-            this.calculateFingerprint(fingerprintConfig);
-            this.fingerprintConfig_cached = fingerprintConfig;
+    // Decodes the image when the fingerprint is calculated, strip by strip
+    private Sampler(StripDecoder stripDecoder) {
+        this.file = stripDecoder.getFile();
+        this.stripDecoder = stripDecoder;
+        this.width = stripDecoder.getDecodedWidth();
+        this.height = stripDecoder.getDecodedHeight();
+    }
+
+    /**
+     * Decodes an image for fingerprints with the given config: subsampled with
+     * {@link ApplicationConfig#SUBSAMPLED_DECODING}, and a strip at a time (while fingerprinting) if it's too big to
+     * decode at once. Check {@link #isDecoded()}, it may not have been an image after all.
+     */
+    public static Sampler decode(ImageHeader image, FingerprintConfig fingerprintConfig) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (ImageDecoder.isDecodedInStrips(width, height, fingerprintConfig)) {
+            return new Sampler(new StripDecoder(image.getFile(), width, height,
+                    ImageDecoder.getDecodeSubsampling(width, height, fingerprintConfig)));
+        }
+
+        return ApplicationConfig.SUBSAMPLED_DECODING
+                ? new Sampler(image.getFile(), fingerprintConfig)
+                : new Sampler(image.getFile());
+    }
+
+    public Fingerprint getFingerprint(FingerprintConfig fingerprintConfig) {
+        if ((this.fingerprint == null) || !fingerprintConfig.equals(this.fingerprint.getConfig())) {
+            this.fingerprint = this.calculateFingerprint(fingerprintConfig);
         }
         // else: reusing cached fingerprint
 
         return this.fingerprint;
     }
 
-    private void calculateFingerprint(FingerprintConfig fingerprintConfig) {
+    public Double getNoiseScore() {
+        return (this.fingerprint != null) ? this.fingerprint.getNoiseScore() : null;
+    }
+
+    private Fingerprint calculateFingerprint(FingerprintConfig fingerprintConfig) {
+
+        if (this.stripDecoder != null) {
+            StripFingerprinter stripFingerprinter = new StripFingerprinter(fingerprintConfig, this.width, this.height,
+                    this.fileMdHash);
+            try {
+                this.stripDecoder.decode(ApplicationConfig.STRIP_DECODING_THREADS, stripFingerprinter);
+
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't decode " + this.file.getName() + " strip by strip", e);
+            }
+            return stripFingerprinter.getFingerprint();
+        }
+
+        if (this.raster == null) {
+            throw new RuntimeException("No pixels to fingerprint " + this.file.getName()
+                    + " with, it failed to decode or the raster was already cleared");
+        }
+
+        // r,g,b per block, laid out row-major by grid position
+        byte[] blockAverages = new byte[fingerprintConfig.getBlockCount() * Fingerprint.CHANNELS];
+
+        // Brightness of the coarser perceptual hash grid, from the same pixels
+        int[] hashGrid;
+        double noiseScore;
+
+        if (fingerprintConfig.isExact()) {
+            // the table's pass over the raster scores the noise too
+            SummedAreaTable table = new SummedAreaTable(this.raster);
+
+            hashGrid = averageBlocks(table, fingerprintConfig, blockAverages);
+            noiseScore = ImageNoiseScorer.toNoiseScore(table.getNeighbourDifferenceSum(),
+                    (long) this.width * this.height);
+        } else {
+            hashGrid = sampleBlocks(this.raster, fingerprintConfig, blockAverages);
+            noiseScore = ImageNoiseScorer.getImageNoiseScore(this);
+        }
+
+        return new Fingerprint(fingerprintConfig, blockAverages, noiseScore, PerceptualHash.fromLumaGrid(hashGrid));
+    }
+
+    // Averages passesPerBlock random pixels per block into blockAverages, straight off the raster - this runs for
+    // every image, so nothing per sample allocates
+    private int[] sampleBlocks(RasterReader raster, FingerprintConfig fingerprintConfig, byte[] blockAverages) {
 
         int accuracyX = fingerprintConfig.getAccuracyX();
         int accuracyY = fingerprintConfig.getAccuracyY();
         int passesPerBlock = fingerprintConfig.getPassesPerBlock();
 
-        accuracyX = accuracyX <= 100 ? accuracyX : 100;
-        accuracyY = accuracyY <= 100 ? accuracyY : 100;
-
         double stepSizeX = width / accuracyX;
         double stepSizeY = height / accuracyY;
 
-        // TODO: Refactor away getPixelMatrix methods
-        byte[] rasterMatrix;
-        rasterMatrix = getPixelMatrix_MethodOne();
+        // Seeded by the file's hash, so the same file always gets the same samples (whichever thread it's on)
+        SplittableRandom random = new SplittableRandom(this.fileMdHash);
+
+        // The same samples also go into the coarser perceptual hash grid, by whichever hash cell they fall in
+        long[] hashCellLuma = new long[PerceptualHash.GRID_WIDTH * PerceptualHash.GRID_HEIGHT];
+        int[] hashCellSamples = new int[hashCellLuma.length];
 
-        ArrayList<SimplePair<Point, SimpleColor>> blockAverages = new ArrayList<>();
+        int blockOffset = 0;
 
-        // rectangle height = stepSizeX
-        // start point = stepSizeX / 2, stepSizeY / 2
-        // end point = width - (stepSize / 2), height - (stepSize / 2)
-        for (double i = (stepSizeY / 2); i <= (height - (stepSizeY / 2)); i += stepSizeY) {
-            for (double j = (stepSizeX / 2); j <= (width - (stepSizeX / 2)); j += stepSizeX) {
+        // rectangle height = stepSizeY, width = stepSizeX
+        // block centres are at stepSize / 2, stepSize * 1.5, ... one block per grid position
+        for (int blockY = 0; blockY < accuracyY; blockY++) {
+            double i = (stepSizeY / 2) + (blockY * stepSizeY);
 
-                // TODO: Is this causing a lot of slowdown (instantiating Colors)?
-                ArrayList<Color> pixels = new ArrayList<>();
+            for (int blockX = 0; blockX < accuracyX; blockX++) {
+                double j = (stepSizeX / 2) + (blockX * stepSizeX);
+
+                long red = 0;
+                long green = 0;
+                long blue = 0;
 
                 for (int k = 0; k < passesPerBlock; k++) {
 
                     // get a pixel from the block being examined
-                    pixels.add(PixelUtility.getPixelColor(rasterMatrix,
-                            (int) ((j + ((Math.random() - 0.5) * stepSizeX))),
-                            (int) ((i + ((Math.random() - 0.5) * stepSizeY))),
-                            this.width, this.height, this.file.getName()));
+                    int x = (int) ((j + ((random.nextDouble() - 0.5) * stepSizeX)));
+                    int y = (int) ((i + ((random.nextDouble() - 0.5) * stepSizeY)));
+
+                    int rgb = raster.getRGB(x, y);
+                    int r = (rgb >>> 16) & 0xFF;
+                    int g = (rgb >>> 8) & 0xFF;
+                    int b = rgb & 0xFF;
+
+                    red += r;
+                    green += g;
+                    blue += b;
+
+                    int hashCell = ((y * PerceptualHash.GRID_HEIGHT / this.height) * PerceptualHash.GRID_WIDTH)
+                            + (x * PerceptualHash.GRID_WIDTH / this.width);
+                    hashCellLuma[hashCell] += PerceptualHash.luma(r, g, b);
+                    hashCellSamples[hashCell]++;
                 }
 
                 // get the 'average' color value for the subject block
-                Color averagePixel = PixelUtility.getAverageOfPixels(pixels);
-                blockAverages.add(new SimplePair<>(new Point((int)j, (int)i), new SimpleColor(averagePixel)));
+                blockAverages[blockOffset++] = (byte) (red / passesPerBlock);
+                blockAverages[blockOffset++] = (byte) (green / passesPerBlock);
+                blockAverages[blockOffset++] = (byte) (blue / passesPerBlock);
 
                 // TODO: more comprehensive 'averaging' i.e. average of all 'mostly-<color>' pixels
                 // TODO: so we would look at the reddish pixels separately to the greenish pixels, for example
             }
         }
 
-        this.noiseScore = ImageNoiseScorer.getImageNoiseScore(this);
+        // cells nothing was sampled from (only possible with very coarse configs) count as black
+        int[] hashGrid = new int[hashCellLuma.length];
+        for (int cell = 0; cell < hashGrid.length; cell++) {
+            hashGrid[cell] = (hashCellSamples[cell] > 0) ? (int) (hashCellLuma[cell] / hashCellSamples[cell]) : 0;
+        }
+        return hashGrid;
+    }
+
+    // Exact average of every block, and of every perceptual hash cell, from a summed-area table
+    private static int[] averageBlocks(SummedAreaTable table, FingerprintConfig fingerprintConfig,
+                                       byte[] blockAverages) {
+        long[] sums = new long[Fingerprint.CHANNELS];
+
+        int accuracyX = fingerprintConfig.getAccuracyX();
+        int accuracyY = fingerprintConfig.getAccuracyY();
+        int blockOffset = 0;
+
+        for (int blockY = 0; blockY < accuracyY; blockY++) {
+            for (int blockX = 0; blockX < accuracyX; blockX++) {
+                long area = getBlockSums(table, blockX, blockY, accuracyX, accuracyY, sums);
+
+                for (int channel = 0; channel < Fingerprint.CHANNELS; channel++) {
+                    blockAverages[blockOffset++] = (byte) ((sums[channel] + (area / 2)) / area);
+                }
+            }
+        }
+
+        int[] hashGrid = new int[PerceptualHash.GRID_WIDTH * PerceptualHash.GRID_HEIGHT];
+        for (int cellY = 0; cellY < PerceptualHash.GRID_HEIGHT; cellY++) {
+            for (int cellX = 0; cellX < PerceptualHash.GRID_WIDTH; cellX++) {
+                long area = getBlockSums(table, cellX, cellY, PerceptualHash.GRID_WIDTH, PerceptualHash.GRID_HEIGHT,
+                        sums);
+                hashGrid[(cellY * PerceptualHash.GRID_WIDTH) + cellX] =
+                        (int) (PerceptualHash.luma(sums[0], sums[1], sums[2]) / area);
+            }
+        }
+        return hashGrid;
+    }
+
+    // Sums of one block of a grid laid over the whole image (at least a pixel, even if the grid is finer than the
+    // image), returns its area
+    private static long getBlockSums(SummedAreaTable table, int blockX, int blockY, int gridWidth, int gridHeight,
+                                     long[] sums) {
+        int width = table.getWidth();
+        int height = table.getHeight();
+
+        int x0 = Math.min((int) ((long) blockX * width / gridWidth), width - 1);
+        int y0 = Math.min((int) ((long) blockY * height / gridHeight), height - 1);
+        int x1 = Math.max((int) ((long) (blockX + 1) * width / gridWidth), x0 + 1);
+        int y1 = Math.max((int) ((long) (blockY + 1) * height / gridHeight), y0 + 1);
+
+        table.getSums(x0, y0, x1, y1, sums);
+        return (long) (x1 - x0) * (y1 - y0);
+    }
 
-        this.fingerprint = blockAverages;
+    private void setImage(BufferedImage image) {
+        this.height = image.getHeight();
+        this.width = image.getWidth();
+        this.raster = RasterReader.of(image);
     }
 
     public boolean fingerprintReady() {
         return (this.fingerprint != null);
     }
 
-    private byte[] getPixelMatrix_MethodOne() {
-        return pixels;
+    /**
+     * @return Whether there are pixels to fingerprint: a decoded raster, or an image to decode strip by strip
+     */
+    public boolean isDecoded() {
+        return (this.raster != null) || (this.stripDecoder != null);
     }
 
     public void clearRaster() {
-        this.pixels = new byte[0];
+        this.raster = null;
+        this.stripDecoder = null;
     }
 
     public Sampler copy() {
-        Sampler sampler = new Sampler(this.fingerprint, this.fingerprintConfig_cached, this.noiseScore);
+        // Fingerprints are immutable, the copy can share it
+        Sampler sampler = new Sampler(this.fingerprint);
         sampler.setFile(this.file);
         sampler.setFileMdHash(this.fileMdHash);
         return sampler;
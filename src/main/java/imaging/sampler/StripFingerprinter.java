@@ -0,0 +1,284 @@
+package imaging.sampler;
+
+import imaging.decoding.StripDecoder;
+import imaging.raster.RasterReader;
+import imaging.scoring.ImageNoiseScorer;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+/**
+ * Builds a fingerprint from strips of an image, in whatever order they're decoded (see {@link StripDecoder}), for
+ * images too big to have in memory at once. Comes out the same as {@link Sampler} fingerprinting the whole raster:
+ * exact configs sum every pixel into its block, sampled ones pick the same random pixels, and the noise score still
+ * compares each pixel with the one before it.
+ * <p>
+ * Only meant for big images - exact blocks have to be at least a pixel each way, which a whole raster doesn't need.
+ */
+class StripFingerprinter implements StripDecoder.StripConsumer {
+
+    private static final int CHANNELS = Fingerprint.CHANNELS;
+    private static final int HASH_CELLS = PerceptualHash.GRID_WIDTH * PerceptualHash.GRID_HEIGHT;
+
+    private final FingerprintConfig fingerprintConfig;
+    private final int width;
+    private final int height;
+
+    // Exact configs only: the block and hash cell each column and row falls in
+    private final int[] blockColumns;
+    private final int[] blockRows;
+    private final int[] cellColumns;
+    private final int[] cellRows;
+
+    // Sampled configs only: the samples on each row are sampleX/sampleBlock[sampleStarts[y] until sampleStarts[y + 1]]
+    private final int[] sampleStarts;
+    private final int[] sampleX;
+    private final int[] sampleBlock;
+
+    // r,g,b sums per block and per hash cell, with the samples per cell for sampled configs
+    private final long[] blockSums;
+    private final long[] cellSums;
+    private final long[] cellLuma = new long[HASH_CELLS];
+    private final int[] cellSamples = new int[HASH_CELLS];
+
+    // Neighbour differences within each strip, and the first and last pixel of each (by first row) for the ones
+    // between them
+    private long differenceSum = 0;
+    private final Map<Integer, int[]> stripEnds = new TreeMap<>();
+
+    StripFingerprinter(FingerprintConfig fingerprintConfig, int width, int height, long seed) {
+        this.fingerprintConfig = fingerprintConfig;
+        this.width = width;
+        this.height = height;
+
+        int accuracyX = fingerprintConfig.getAccuracyX();
+        int accuracyY = fingerprintConfig.getAccuracyY();
+
+        this.blockSums = new long[fingerprintConfig.getBlockCount() * CHANNELS];
+        this.cellSums = new long[HASH_CELLS * CHANNELS];
+
+        if (fingerprintConfig.isExact()) {
+            if ((width < accuracyX) || (height < accuracyY)) {
+                throw new IllegalArgumentException("A " + width + "x" + height + " image is too small to fingerprint "
+                        + "in strips on a " + accuracyX + "x" + accuracyY + " grid");
+            }
+
+            this.blockColumns = getCells(width, accuracyX);
+            this.blockRows = getCells(height, accuracyY);
+            this.cellColumns = getCells(width, PerceptualHash.GRID_WIDTH);
+            this.cellRows = getCells(height, PerceptualHash.GRID_HEIGHT);
+            this.sampleStarts = null;
+            this.sampleX = null;
+            this.sampleBlock = null;
+
+        } else {
+            this.blockColumns = null;
+            this.blockRows = null;
+            this.cellColumns = null;
+            this.cellRows = null;
+
+            int samples = fingerprintConfig.getBlockCount() * fingerprintConfig.getPassesPerBlock();
+            int[] x = new int[samples];
+            int[] y = new int[samples];
+            int[] block = new int[samples];
+            planSamples(seed, x, y, block);
+
+            // sorted by row, so each strip finds its samples straight away
+            this.sampleStarts = new int[height + 1];
+            for (int sample = 0; sample < samples; sample++) {
+                sampleStarts[y[sample] + 1]++;
+            }
+            for (int row = 0; row < height; row++) {
+                sampleStarts[row + 1] += sampleStarts[row];
+            }
+
+            int[] next = new int[height];
+            System.arraycopy(sampleStarts, 0, next, 0, height);
+            this.sampleX = new int[samples];
+            this.sampleBlock = new int[samples];
+            for (int sample = 0; sample < samples; sample++) {
+                int slot = next[y[sample]]++;
+                sampleX[slot] = x[sample];
+                sampleBlock[slot] = block[sample];
+            }
+        }
+    }
+
+    @Override
+    public void accept(RasterReader strip, int firstRow) {
+        int rows = strip.getHeight();
+        int[] row = new int[width];
+
+        // added to the totals once the strip is done, the arrays are small next to the strip
+        long[] stripBlockSums = new long[blockSums.length];
+        long[] stripCellSums = new long[cellSums.length];
+        long[] stripCellLuma = new long[HASH_CELLS];
+        int[] stripCellSamples = new int[HASH_CELLS];
+        long stripDifferenceSum = 0;
+
+        strip.readRow(0, row);
+        int first = row[0];
+        int last = first;
+
+        for (int stripRow = 0; stripRow < rows; stripRow++) {
+            int y = firstRow + stripRow;
+            if (stripRow > 0) {
+                strip.readRow(stripRow, row);
+            }
+
+            for (int x = 0; x < width; x++) {
+                stripDifferenceSum += ImageNoiseScorer.getDifferenceScore(last, row[x]);
+                last = row[x];
+            }
+
+            if (fingerprintConfig.isExact()) {
+                int blockRow = blockRows[y] * fingerprintConfig.getAccuracyX();
+                int cellRow = cellRows[y] * PerceptualHash.GRID_WIDTH;
+
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    add(stripBlockSums, (blockRow + blockColumns[x]) * CHANNELS, rgb);
+                    add(stripCellSums, (cellRow + cellColumns[x]) * CHANNELS, rgb);
+                }
+
+            } else {
+                int cellRow = (y * PerceptualHash.GRID_HEIGHT / height) * PerceptualHash.GRID_WIDTH;
+
+                for (int sample = sampleStarts[y]; sample < sampleStarts[y + 1]; sample++) {
+                    int x = sampleX[sample];
+                    int rgb = row[x];
+                    add(stripBlockSums, sampleBlock[sample] * CHANNELS, rgb);
+
+                    int cell = cellRow + (x * PerceptualHash.GRID_WIDTH / width);
+                    stripCellLuma[cell] += PerceptualHash.luma((rgb >>> 16) & 0xFF, (rgb >>> 8) & 0xFF, rgb & 0xFF);
+                    stripCellSamples[cell]++;
+                }
+            }
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < blockSums.length; i++) {
+                blockSums[i] += stripBlockSums[i];
+            }
+            for (int i = 0; i < cellSums.length; i++) {
+                cellSums[i] += stripCellSums[i];
+            }
+            for (int i = 0; i < HASH_CELLS; i++) {
+                cellLuma[i] += stripCellLuma[i];
+                cellSamples[i] += stripCellSamples[i];
+            }
+            differenceSum += stripDifferenceSum;
+            stripEnds.put(firstRow, new int[]{first, last});
+        }
+    }
+
+    /**
+     * Once every strip is in
+     */
+    synchronized Fingerprint getFingerprint() {
+        // the pairs across strip boundaries: the last pixel of each strip, and the first of the next
+        long totalDifferenceSum = differenceSum;
+        int[] previous = null;
+        for (int[] ends : stripEnds.values()) {
+            if (previous != null) {
+                totalDifferenceSum += ImageNoiseScorer.getDifferenceScore(previous[1], ends[0]);
+            }
+            previous = ends;
+        }
+        double noiseScore = ImageNoiseScorer.toNoiseScore(totalDifferenceSum, (long) width * height);
+
+        byte[] blockAverages = new byte[blockSums.length];
+        int[] hashGrid = new int[HASH_CELLS];
+
+        if (fingerprintConfig.isExact()) {
+            // rounded like Sampler's summed-area table averages
+            int accuracyX = fingerprintConfig.getAccuracyX();
+            for (int block = 0; block < fingerprintConfig.getBlockCount(); block++) {
+                long area = getLength(width, accuracyX, block % accuracyX)
+                        * getLength(height, fingerprintConfig.getAccuracyY(), block / accuracyX);
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    int i = (block * CHANNELS) + channel;
+                    blockAverages[i] = (byte) ((blockSums[i] + (area / 2)) / area);
+                }
+            }
+
+            for (int cell = 0; cell < HASH_CELLS; cell++) {
+                long area = getLength(width, PerceptualHash.GRID_WIDTH, cell % PerceptualHash.GRID_WIDTH)
+                        * getLength(height, PerceptualHash.GRID_HEIGHT, cell / PerceptualHash.GRID_WIDTH);
+                int i = cell * CHANNELS;
+                hashGrid[cell] = (int) (PerceptualHash.luma(cellSums[i], cellSums[i + 1], cellSums[i + 2]) / area);
+            }
+
+        } else {
+            int passesPerBlock = fingerprintConfig.getPassesPerBlock();
+            for (int i = 0; i < blockSums.length; i++) {
+                blockAverages[i] = (byte) (blockSums[i] / passesPerBlock);
+            }
+
+            for (int cell = 0; cell < HASH_CELLS; cell++) {
+                hashGrid[cell] = (cellSamples[cell] > 0) ? (int) (cellLuma[cell] / cellSamples[cell]) : 0;
+            }
+        }
+
+        return new Fingerprint(fingerprintConfig, blockAverages, noiseScore, PerceptualHash.fromLumaGrid(hashGrid));
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    // The same pixels, in the same order, that Sampler#sampleBlocks picks
+    private void planSamples(long seed, int[] x, int[] y, int[] block) {
+        int accuracyX = fingerprintConfig.getAccuracyX();
+        int accuracyY = fingerprintConfig.getAccuracyY();
+        int passesPerBlock = fingerprintConfig.getPassesPerBlock();
+
+        double stepSizeX = width / accuracyX;
+        double stepSizeY = height / accuracyY;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int sample = 0;
+
+        for (int blockY = 0; blockY < accuracyY; blockY++) {
+            double i = (stepSizeY / 2) + (blockY * stepSizeY);
+
+            for (int blockX = 0; blockX < accuracyX; blockX++) {
+                double j = (stepSizeX / 2) + (blockX * stepSizeX);
+
+                for (int k = 0; k < passesPerBlock; k++) {
+                    x[sample] = (int) ((j + ((random.nextDouble() - 0.5) * stepSizeX)));
+                    y[sample] = (int) ((i + ((random.nextDouble() - 0.5) * stepSizeY)));
+                    block[sample] = (blockY * accuracyX) + blockX;
+                    sample++;
+                }
+            }
+        }
+    }
+
+    // Which of the grid's cells each position falls in, with the same bounds as Sampler#getBlockSums (which are
+    // just size * cell / grid once size >= grid)
+    private static int[] getCells(int size, int grid) {
+        int[] cells = new int[size];
+        for (int cell = 0; cell < grid; cell++) {
+            int start = getStart(size, grid, cell);
+            int end = getStart(size, grid, cell + 1);
+            for (int position = start; position < end; position++) {
+                cells[position] = cell;
+            }
+        }
+        return cells;
+    }
+
+    private static int getStart(int size, int grid, int cell) {
+        return (int) ((long) cell * size / grid);
+    }
+
+    private static long getLength(int size, int grid, int cell) {
+        return getStart(size, grid, cell + 1) - getStart(size, grid, cell);
+    }
+
+    private static void add(long[] sums, int offset, int rgb) {
+        sums[offset] += (rgb >>> 16) & 0xFF;
+        sums[offset + 1] += (rgb >>> 8) & 0xFF;
+        sums[offset + 2] += rgb & 0xFF;
+    }
+}
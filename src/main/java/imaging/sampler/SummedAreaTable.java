@@ -0,0 +1,164 @@
+package imaging.sampler;
+
+import imaging.scoring.ImageNoiseScorer;
+import imaging.util.ParallelRanges;
+import imaging.raster.RasterReader;
+
+/**
+ * Per channel sums of every pixel above and left of each position (an integral image), built in one pass over the
+ * raster. The sum, and so the exact average, of any rectangle then takes four lookups, whatever its size.
+ * <p>
+ * Sums are kept as ints while the whole image's sum fits in one (about 8 megapixels), as longs above that. The same
+ * pass adds up the differences between neighbouring pixels for the noise score, so exact fingerprints read the raster
+ * only once.
+ */
+public class SummedAreaTable {
+
+    private static final int CHANNELS = Fingerprint.CHANNELS;
+
+    private final int width;
+    private final int height;
+
+    // (width + 1) x (height + 1) x r,g,b, row-major, with a row and column of zeros in front. Only one is used.
+    private final int[] intSums;
+    private final long[] longSums;
+
+    private final long neighbourDifferenceSum;
+
+    public SummedAreaTable(RasterReader raster) {
+        this.width = raster.getWidth();
+        this.height = raster.getHeight();
+
+        int size = (width + 1) * (height + 1) * CHANNELS;
+        boolean fitsInt = (long) width * height * 255 <= Integer.MAX_VALUE;
+        this.intSums = fitsInt ? new int[size] : null;
+        this.longSums = fitsInt ? null : new long[size];
+
+        long pixels = (long) width * height;
+
+        if (!ParallelRanges.isWorthSplitting(pixels)) {
+            this.neighbourDifferenceSum = sumRows(raster, 0, height, true);
+            return;
+        }
+
+        // Rows are independent until the running sums go down the columns, so for big images both halves split
+        // across threads
+        this.neighbourDifferenceSum = ParallelRanges.sum(height, pixels,
+                (fromRow, toRow) -> sumRows(raster, fromRow, toRow, false));
+        ParallelRanges.sum(width + 1, pixels, (fromColumn, toColumn) -> {
+            sumColumns(fromColumn, toColumn);
+            return 0;
+        });
+    }
+
+    /**
+     * @return Roughly the heap a table for an image of this size takes
+     */
+    public static long getSizeInBytes(int width, int height) {
+        long cells = (width + 1L) * (height + 1L) * CHANNELS;
+        boolean fitsInt = (long) width * height * 255 <= Integer.MAX_VALUE;
+        return cells * (fitsInt ? Integer.BYTES : Long.BYTES);
+    }
+
+    /**
+     * Sums of the rectangle [x0, x1) x [y0, y1)
+     *
+     * @param sums Gets the red, green and blue sums
+     */
+    public void getSums(int x0, int y0, int x1, int y1, long[] sums) {
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            sums[channel] = get(x1, y1, channel) - get(x0, y1, channel) - get(x1, y0, channel)
+                    + get(x0, y0, channel);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Sum of the colour differences between each pixel and the one before it in the raster, see
+     * {@link ImageNoiseScorer#getNeighbourDifferenceSum}
+     */
+    public long getNeighbourDifferenceSum() {
+        return neighbourDifferenceSum;
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    // Running sums along each of the rows (plus the row above, if it's done already), and the noise score's neighbour
+    // differences while the pixels are at hand
+    private long sumRows(RasterReader raster, int fromRow, int toRow, boolean addAbove) {
+        int rowStride = (width + 1) * CHANNELS;
+        int[] row = new int[width];
+        long differenceSum = 0;
+
+        // the pixel before the chunk's first, the raster's first pixel is compared with itself
+        int last = (fromRow > 0) ? raster.getRGB(width - 1, fromRow - 1) : raster.getRGB(0, 0);
+
+        for (int y = fromRow + 1; y <= toRow; y++) {
+            raster.readRow(y - 1, row);
+
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+
+            int cell = y * rowStride + CHANNELS;
+            int above = addAbove ? cell - rowStride : 0;
+
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+
+                differenceSum += ImageNoiseScorer.getDifferenceScore(last, rgb);
+                last = rgb;
+
+                red += (rgb >>> 16) & 0xFF;
+                green += (rgb >>> 8) & 0xFF;
+                blue += rgb & 0xFF;
+
+                // the leading row and column of zeros stand in for the row above when it isn't added yet
+                if (intSums != null) {
+                    intSums[cell] = intSums[above] + (int) red;
+                    intSums[cell + 1] = intSums[above + 1] + (int) green;
+                    intSums[cell + 2] = intSums[above + 2] + (int) blue;
+                } else {
+                    longSums[cell] = longSums[above] + red;
+                    longSums[cell + 1] = longSums[above + 1] + green;
+                    longSums[cell + 2] = longSums[above + 2] + blue;
+                }
+                cell += CHANNELS;
+                if (addAbove) {
+                    above += CHANNELS;
+                }
+            }
+        }
+        return differenceSum;
+    }
+
+    // Adds each row's sums to the ones below it, for columns [fromColumn, toColumn)
+    private void sumColumns(int fromColumn, int toColumn) {
+        int rowStride = (width + 1) * CHANNELS;
+
+        for (int y = 2; y <= height; y++) {
+            int cell = y * rowStride + fromColumn * CHANNELS;
+            int end = y * rowStride + toColumn * CHANNELS;
+
+            for (; cell < end; cell++) {
+                if (intSums != null) {
+                    intSums[cell] += intSums[cell - rowStride];
+                } else {
+                    longSums[cell] += longSums[cell - rowStride];
+                }
+            }
+        }
+    }
+
+    private long get(int x, int y, int channel) {
+        int index = ((y * (width + 1)) + x) * CHANNELS + channel;
+        return (intSums != null) ? intSums[index] : longSums[index];
+    }
+}
@@ -0,0 +1,132 @@
+package imaging.scoring;
+
+/**
+ * Keeps the k lowest (id, score) pairs offered to it, in two primitive arrays arranged as a max-heap on score, so the
+ * worst kept score is always at the root. Offering is O(log k) and never allocates.
+ * <p>
+ * Entries are in heap order, not sorted order. Not thread-safe.
+ */
+public final class BoundedScoreHeap {
+
+    private final int[] ids;
+    private final int[] scores;
+    private int size = 0;
+
+    public BoundedScoreHeap(int capacity) {
+        this.ids = new int[capacity];
+        this.scores = new int[capacity];
+    }
+
+    /**
+     * @return True if the pair is now one of the k lowest (when full, the worst pair is dropped to make room)
+     */
+    public boolean offer(int id, int score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+
+        if ((size == 0) || (score >= scores[0])) {
+            return false;
+        }
+
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    public void offerAll(BoundedScoreHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ids[i], other.scores[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    /**
+     * @return The highest kept score, i.e. the k-th lowest once full
+     */
+    public int getWorstScore() {
+        if (size == 0) {
+            throw new IllegalStateException("No scores offered yet");
+        }
+        return scores[0];
+    }
+
+    /**
+     * @return The score a new pair has to beat to be kept, Integer.MAX_VALUE until full
+     */
+    public int getLimit() {
+        return isFull() ? scores[0] : Integer.MAX_VALUE;
+    }
+
+    // index: 0 .. size() - 1, in heap order
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getScore(int index) {
+        return scores[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private void siftUp(int index) {
+        int id = ids[index];
+        int score = scores[index];
+
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] >= score) {
+                break;
+            }
+            ids[index] = ids[parent];
+            scores[index] = scores[parent];
+            index = parent;
+        }
+
+        ids[index] = id;
+        scores[index] = score;
+    }
+
+    private void siftDown(int index) {
+        int id = ids[index];
+        int score = scores[index];
+
+        while (true) {
+            int child = (2 * index) + 1;
+            if (child >= size) {
+                break;
+            }
+            if ((child + 1 < size) && (scores[child + 1] > scores[child])) {
+                child++;
+            }
+            if (score >= scores[child]) {
+                break;
+            }
+            ids[index] = ids[child];
+            scores[index] = scores[child];
+            index = child;
+        }
+
+        ids[index] = id;
+        scores[index] = score;
+    }
+}
@@ -0,0 +1,66 @@
+package imaging.scoring;
+
+import imaging.sampler.Fingerprint;
+import imaging.scoring.distance.DistanceKernel;
+import imaging.scoring.distance.DistanceKernels;
+import lombok.Getter;
+
+/**
+ * Scores how different two fingerprints are: the raw difference score from a {@link DistanceKernel}, adjusted for
+ * how noisy the two images are. Lower is more similar.
+ */
+public class ComparisonScorer {
+
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    @Getter
+    private final DistanceKernel kernel;
+
+    public ComparisonScorer() {
+        this(DistanceKernels.getDefault());
+    }
+
+    public ComparisonScorer(DistanceKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    public int getComparisonScore(Fingerprint leftFingerprint, Fingerprint rightFingerprint) {
+        return getComparisonScore(leftFingerprint, rightFingerprint, NO_LIMIT);
+    }
+
+    /**
+     * @param maxScore Scores above this aren't of interest to the caller, so the comparison may be abandoned early
+     * @return The exact comparison score if it is {@code <= maxScore}, otherwise some value {@code > maxScore}
+     */
+    public int getComparisonScore(Fingerprint leftFingerprint, Fingerprint rightFingerprint, int maxScore) {
+
+        if (leftFingerprint.getBlockCount() != rightFingerprint.getBlockCount()) {
+            throw new RuntimeException("Fingerprints not same size");
+        }
+
+        double relativeNoiseFactor = getRelativeNoiseFactor(leftFingerprint, rightFingerprint);
+
+        // Largest raw score that could still adjust to <= maxScore (erring high, that only costs an early exit)
+        int threshold = DistanceKernel.NO_THRESHOLD;
+        if (maxScore != NO_LIMIT) {
+            threshold = (int) Math.min(DistanceKernel.NO_THRESHOLD, Math.ceil((maxScore + 1.0) / relativeNoiseFactor));
+        }
+
+        // Do a simple comparison of pixel colors between two fingerprints
+        int score = kernel.distance(leftFingerprint, rightFingerprint, threshold);
+
+        // Now that we have the difference score, adjust for noise.
+        return (int) (score * relativeNoiseFactor);
+    }
+
+    public int getDifferenceScore(Fingerprint leftFingerprint, Fingerprint rightFingerprint) {
+        return kernel.distance(leftFingerprint, rightFingerprint, DistanceKernel.NO_THRESHOLD);
+    }
+
+    // TODO: This appears to work without adding weighting parameters, thorough testing could improve this though
+    // We need to adjust our tolerance significantly when comparing two images that both have very low noise.
+    // min(1 / sqrt(l), 1 / sqrt(r)) == 1 / sqrt(max(l, r)), the per-image factors are precomputed
+    public static double getRelativeNoiseFactor(Fingerprint left, Fingerprint right) {
+        return Math.min(left.getNoiseFactor(), right.getNoiseFactor());
+    }
+}
@@ -1,12 +1,10 @@
 package imaging.scoring;
 
+import imaging.raster.RasterReader;
 import imaging.sampler.Sampler;
-import imaging.util.PixelUtility;
-import imaging.util.RGBA;
-import imaging.util.SimpleColor;
+import imaging.util.ParallelRanges;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
-import main.ApplicationConfig;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -16,69 +14,59 @@ public class ImageNoiseScorer {
 
     public static final ArrayList<String> NOISE_SCORES = new ArrayList<>(Collections.singletonList("wallpaper,score")); // debug only
 
-    // TODO: Refactor this to consider PNG files better, as well as whole application.
-    // TODO: The assumption is made that there are three 8-bit layers per image, but with transparent PNGs,
-    // TODO: there is also an alpha layer, making four layers.
-    public static Double getImageNoiseScore(Sampler sampler) {
-
-        byte[] rasterMatrix = sampler.getPixels();
-        long grossScore = 0;
-
-        boolean validRasterArray = false;
-        int detectedLayerCount = 0;
-
-        for (Integer validLayerCount : ApplicationConfig.VALID_LAYER_COUNTS) {
-
-            if (rasterMatrix.length == (sampler.getHeight() * sampler.getWidth() * validLayerCount)) {
+    /**
+     * Average colour difference between each pixel and the one before it in the raster. Exact fingerprints get this
+     * from the same pass that builds their summed-area table instead, see {@link imaging.sampler.SummedAreaTable}.
+     */
+    public static double getImageNoiseScore(Sampler sampler) {
+        RasterReader raster = sampler.getRaster();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
 
-                validRasterArray = true;
-                detectedLayerCount = validLayerCount;
+        long differenceSum = ParallelRanges.sum(height, (long) width * height,
+                (fromRow, toRow) -> getNeighbourDifferenceSum(raster, fromRow, toRow));
 
-                for (int i = 0; i < rasterMatrix.length - validLayerCount; i += validLayerCount) {
+        return toNoiseScore(differenceSum, (long) width * height);
+    }
 
-                    grossScore += getTwoColorDifferenceScore(
-                            // left pixel
-                            PixelUtility.getByteColor(
-                                    rasterMatrix[i + validLayerCount - RGBA.RED.value],
-                                    rasterMatrix[i + validLayerCount - RGBA.GREEN.value],
-                                    rasterMatrix[i + validLayerCount - RGBA.BLUE.value]),
+    /**
+     * @param differenceSum Sum of the differences of every pair of neighbouring pixels
+     * @param pixels        Pixels in the image
+     */
+    public static double toNoiseScore(long differenceSum, long pixels) {
+        return ((double) differenceSum) / pixels;
+    }
 
-                            // right pixel
-                            PixelUtility.getByteColor(
-                                    rasterMatrix[i + (validLayerCount * 2) - RGBA.RED.value],
-                                    rasterMatrix[i + (validLayerCount * 2) - RGBA.GREEN.value],
-                                    rasterMatrix[i + (validLayerCount * 2) - RGBA.BLUE.value]));
-                }
+    /**
+     * Sums the differences between each pixel in rows [fromRow, toRow) and the one before it (the first pixel of a
+     * row comes after the last of the row above)
+     */
+    public static long getNeighbourDifferenceSum(RasterReader raster, int fromRow, int toRow) {
+        int width = raster.getWidth();
+        int[] row = new int[width];
+        long sum = 0;
+
+        // the raster's first pixel has nothing before it, it's compared with itself
+        int last = (fromRow > 0) ? raster.getRGB(width - 1, fromRow - 1) : raster.getRGB(0, 0);
+
+        for (int y = fromRow; y < toRow; y++) {
+            raster.readRow(y, row);
+            for (int x = 0; x < width; x++) {
+                sum += getDifferenceScore(last, row[x]);
+                last = row[x];
             }
         }
-
-        if (!validRasterArray) {
-
-            throw new RuntimeException("Sampler for " + sampler.getFile().getName() + " has dimensions: "
-                    + sampler.getWidth() + "x" + sampler.getHeight()
-                    + ", yet has a raster array size of: " + rasterMatrix.length
-                    + ", should be size: " + (sampler.getHeight() * sampler.getWidth() * 3));
-        }
-
-        return ((double)grossScore) / ((double)(rasterMatrix.length) / ((double)detectedLayerCount));
+        return sum;
     }
 
     /**
-     * Calculates a differential score between two colors (pixels),
-     * the more similar they are across all color layers, the more different they are
-     *
-     * @param color1 Color of first pixel
-     * @param color2 Color of second pixel
-     * @return Calculated differential score
+     * Calculates a differential score between two colors (pixels, as 0xRRGGBB),
+     * the more similar they are across all color layers, the lower the score
      */
-    private static int getTwoColorDifferenceScore(SimpleColor color1, SimpleColor color2) {
-
-        return Math.abs(color1.getRed() - color2.getRed())
-                + Math.abs(color1.getGreen() - color2.getGreen())
-                + Math.abs(color1.getBlue() - color2.getBlue());
+    public static int getDifferenceScore(int rgb1, int rgb2) {
+        return Math.abs(((rgb1 >>> 16) & 0xFF) - ((rgb2 >>> 16) & 0xFF))
+                + Math.abs(((rgb1 >>> 8) & 0xFF) - ((rgb2 >>> 8) & 0xFF))
+                + Math.abs((rgb1 & 0xFF) - (rgb2 & 0xFF));
     }
 
 }
-
-
-
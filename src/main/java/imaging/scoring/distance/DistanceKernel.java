@@ -0,0 +1,23 @@
+package imaging.scoring.distance;
+
+import imaging.sampler.Fingerprint;
+
+/**
+ * Computes the raw difference score between two fingerprints: the sum of absolute channel differences over every
+ * block. Implementations only differ in speed, they must all return the same value as {@link ScalarDistanceKernel}.
+ */
+public interface DistanceKernel {
+
+    int NO_THRESHOLD = Integer.MAX_VALUE;
+
+    /**
+     * @param a         Left fingerprint
+     * @param b         Right fingerprint, must have the same number of blocks as a
+     * @param threshold The kernel may stop as soon as the running sum exceeds this, use {@link #NO_THRESHOLD}
+     *                  to always get the exact score
+     * @return The exact difference score if it is {@code <= threshold}, otherwise some value {@code > threshold}
+     */
+    int distance(Fingerprint a, Fingerprint b, int threshold);
+
+    String getName();
+}
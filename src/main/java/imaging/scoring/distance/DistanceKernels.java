@@ -0,0 +1,66 @@
+package imaging.scoring.distance;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Picks the distance kernel used for comparisons. The fastest available kernel is used unless one is requested
+ * with -Dimaging.distanceKernel=scalar|swar|vector
+ * <p>
+ * The vector kernel is only in the jar when it was built on JDK 16+ (see the vector-kernel profile), as a
+ * multi-release entry for Java 16+. It also needs the incubating Vector API, which is only there when the JVM is
+ * started with --add-modules jdk.incubator.vector. Without either, the fastest kernel is swar.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class DistanceKernels {
+
+    public static final String KERNEL_PROPERTY = "imaging.distanceKernel";
+
+    private static final String VECTOR_API_CLASS = "jdk.incubator.vector.LongVector";
+    private static final String VECTOR_KERNEL_CLASS = "imaging.scoring.distance.VectorDistanceKernel";
+
+    private static final DistanceKernel DEFAULT_KERNEL = forName(System.getProperty(KERNEL_PROPERTY));
+
+    public static DistanceKernel getDefault() {
+        return DEFAULT_KERNEL;
+    }
+
+    /**
+     * @param name Kernel name, or null for the fastest kernel this JVM supports
+     */
+    public static DistanceKernel forName(String name) {
+        if (name == null) {
+            DistanceKernel vectorKernel = loadVectorKernel();
+            return (vectorKernel != null) ? vectorKernel : new SwarDistanceKernel();
+        }
+
+        switch (name) {
+            case "scalar":
+                return new ScalarDistanceKernel();
+            case "swar":
+                return new SwarDistanceKernel();
+            case "vector":
+                DistanceKernel vectorKernel = loadVectorKernel();
+                if (vectorKernel == null) {
+                    throw new IllegalArgumentException("The vector kernel needs Java 16+ started with "
+                            + "--add-modules jdk.incubator.vector, and a jar built on JDK 16+");
+                }
+                return vectorKernel;
+            default:
+                throw new IllegalArgumentException("Unknown distance kernel: " + name
+                        + " (expected scalar, swar or vector)");
+        }
+    }
+
+    // The vector kernel if this JVM can run it, else null. Only loaded by name, this class still has to load on Java 8.
+    private static DistanceKernel loadVectorKernel() {
+        try {
+            // the module is only there when the JVM was started with it
+            Class.forName(VECTOR_API_CLASS);
+            return (DistanceKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package imaging.scoring.distance;
+
+import imaging.sampler.Fingerprint;
+
+/**
+ * Reference kernel, one channel at a time.
+ */
+public class ScalarDistanceKernel implements DistanceKernel {
+
+    // How many channels to sum between early-abandon checks
+    private static final int CHECK_INTERVAL = 24;
+
+    @Override
+    public int distance(Fingerprint a, Fingerprint b, int threshold) {
+        int channels = a.getChannelCount();
+
+        int differenceScore = 0;
+        int i = 0;
+        while (i < channels) {
+            int end = Math.min(i + CHECK_INTERVAL, channels);
+            for (; i < end; i++) {
+                differenceScore += Math.abs(a.getChannel(i) - b.getChannel(i));
+            }
+
+            if (differenceScore > threshold) {
+                return differenceScore;
+            }
+        }
+
+        return differenceScore;
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,72 @@
+package imaging.scoring.distance;
+
+import imaging.sampler.Fingerprint;
+
+/**
+ * SIMD-within-a-register kernel: works on {@link Fingerprint#getPackedWords()}, eight channels per long.
+ * <p>
+ * Each word is split into its even and odd bytes, widened to four 16-bit lanes, and the absolute differences of all
+ * lanes are computed with a handful of branch-free long operations. Lanes are summed into a lane accumulator and only
+ * folded into an int every {@link #CHECK_INTERVAL} words, which is also when the threshold is checked.
+ */
+public class SwarDistanceKernel implements DistanceKernel {
+
+    private static final long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+    private static final long LANE_BIAS = 0x0100010001000100L;
+    private static final long LANE_ONES = 0x0001000100010001L;
+    private static final long LANE_PAIRS = 0x0000FFFF0000FFFFL;
+
+    // A word adds at most 2 * 255 to a 16-bit lane, so lanes can't overflow within this many words
+    private static final int CHECK_INTERVAL = 8;
+
+    @Override
+    public int distance(Fingerprint a, Fingerprint b, int threshold) {
+        long[] left = a.getPackedWords();
+        long[] right = b.getPackedWords();
+
+        int differenceScore = 0;
+        int i = 0;
+        while (i < left.length) {
+            int end = Math.min(i + CHECK_INTERVAL, left.length);
+
+            long lanes = 0;
+            for (; i < end; i++) {
+                long l = left[i];
+                long r = right[i];
+                lanes += laneAbsDiff(l & EVEN_BYTES, r & EVEN_BYTES)
+                        + laneAbsDiff((l >>> 8) & EVEN_BYTES, (r >>> 8) & EVEN_BYTES);
+            }
+            differenceScore += sumLanes(lanes);
+
+            if (differenceScore > threshold) {
+                return differenceScore;
+            }
+        }
+
+        return differenceScore;
+    }
+
+    @Override
+    public String getName() {
+        return "swar";
+    }
+
+    // |x - y| for each of four 16-bit lanes holding values 0-255
+    private static long laneAbsDiff(long x, long y) {
+        // 256 + x - y, in [1, 511] so nothing borrows from the neighbouring lane
+        long biased = (x | LANE_BIAS) - y;
+
+        // bit 8 survives iff x >= y
+        long notNegative = ((biased >>> 8) & LANE_ONES) * 0xFFFF;
+
+        long difference = biased & EVEN_BYTES;        // (x - y) mod 256
+        long negated = LANE_BIAS - difference;        // 256 - ((x - y) mod 256) == y - x, where x < y
+
+        return (difference & notNegative) | (negated & ~notNegative);
+    }
+
+    private static int sumLanes(long lanes) {
+        long pairs = (lanes & LANE_PAIRS) + ((lanes >>> 16) & LANE_PAIRS);
+        return (int) ((pairs & 0xFFFFFFFFL) + (pairs >>> 32));
+    }
+}
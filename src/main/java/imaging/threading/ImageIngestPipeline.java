@@ -0,0 +1,317 @@
+package imaging.threading;
+
+import filehandling.ExactDuplicateDetector;
+import filehandling.HashCacheManager;
+import imaging.decoding.ImageDecoder;
+import imaging.decoding.ImageHeader;
+import imaging.decoding.StripDecoder;
+import imaging.sampler.FingerprintConfig;
+import imaging.sampler.Sampler;
+import imaging.sampler.SummedAreaTable;
+import main.ApplicationConfig;
+import threading.MemoryBudget;
+import threading.PipelineStage;
+import ui.UITaskFeedbackProxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Loads the samplers for image files through a chain of stages, each with its own threads:
+ * <pre>
+ *     identify -> hash -> decode -> fingerprint -> cache/emit
+ * </pre>
+ * Files can be submitted while they're still being found. A file whose stat hasn't changed since its fingerprint was
+ * cached is a cache hit without being opened at all, any other file has its header probed to tell whether (and what
+ * kind of) image it is. The hash stage gives every file its content key ({@link ExactDuplicateDetector}, which only
+ * reads files that could be copies of one another). Files identical to one keyed before stop there, and cache hits
+ * skip straight through decoding and fingerprinting. The queues between stages are bounded, so at most a
+ * few decoded rasters wait for the fingerprint stage at any time.
+ * <p>
+ * Decodes are also admitted against a {@link MemoryBudget}, by what the image's header says it will take from decoding
+ * until its raster is cleared after fingerprinting. A handful of huge images then wait for each other (while small
+ * ones keep going around them), instead of being decoded all at once.
+ */
+public class ImageIngestPipeline {
+
+    // ========= CONSTANTS ============================================================================================
+
+    private static final int HASH_THREADS = 2;
+
+    // Items waiting in front of a stage, per thread of that stage
+    private static final int QUEUED_PER_THREAD = 2;
+
+    // Decoded rasters are at most 4 bytes a pixel for all but 16 bit images
+    private static final int RASTER_BYTES_PER_PIXEL = 4;
+
+    // ========= ATTRIBUTES ===========================================================================================
+
+    private final HashCacheManager hashCacheManager;
+    private final ExactDuplicateDetector exactDuplicateDetector;
+    private final FingerprintConfig fingerprintConfig;
+    private final UITaskFeedbackProxy feedbackProxy;
+
+    // Threads of each of the decode and fingerprint stages
+    private final int threads;
+
+    private final MemoryBudget decodeBudget;
+
+    private PipelineStage<File, Ingest> identify;
+
+    // Only touched by the single cache/emit thread until the pipeline has completed
+    private final List<Sampler> samplers = new ArrayList<>();
+
+    // Every file hashed so far, in the order they were hashed
+    private final Map<Long, List<File>> filesByHash = new ConcurrentHashMap<>();
+
+    // ========= CONSTRUCTOR ==========================================================================================
+
+    public ImageIngestPipeline(HashCacheManager hashCacheManager, ExactDuplicateDetector exactDuplicateDetector,
+                               FingerprintConfig fingerprintConfig, int threads, long decodeMemoryBudget,
+                               UITaskFeedbackProxy feedbackProxy) {
+        this.hashCacheManager = hashCacheManager;
+        this.exactDuplicateDetector = exactDuplicateDetector;
+        this.fingerprintConfig = fingerprintConfig;
+        this.threads = threads;
+        this.decodeBudget = new MemoryBudget(decodeMemoryBudget);
+        this.feedbackProxy = feedbackProxy;
+    }
+
+    // ========= API ==================================================================================================
+
+    /**
+     * Starts the stages, images can be submitted from then on.
+     */
+    public void start() {
+
+        // An image that fails in any stage is left out, the others carry on
+        PipelineStage<Sampler, Void> emit = new PipelineStage<>("Cache", 1, QUEUED_PER_THREAD,
+                this::emit, (sampler, e) -> skip(sampler.getFile(), e), null);
+
+        PipelineStage<Ingest, Sampler> fingerprint = new PipelineStage<>("Fingerprint", threads,
+                threads * QUEUED_PER_THREAD, this::fingerprint, (ingest, e) -> skip(ingest.file, e), emit);
+
+        PipelineStage<Ingest, Ingest> decode = new PipelineStage<>("Decode", threads,
+                threads * QUEUED_PER_THREAD, this::decode, (ingest, e) -> skip(ingest.file, e), fingerprint);
+
+        PipelineStage<Ingest, Ingest> hash = new PipelineStage<>("Hash", HASH_THREADS,
+                HASH_THREADS * QUEUED_PER_THREAD, this::hash, (ingest, e) -> skip(ingest.file, e), decode);
+
+        identify = new PipelineStage<>("Identify", threads, threads * QUEUED_PER_THREAD, this::identify,
+                this::skip, hash);
+    }
+
+    /**
+     * Queues a file, blocking while the pipeline is full. Files that aren't images are counted as progress and left
+     * out. May be called from any thread.
+     */
+    public void submit(File file) {
+        identify.submit(file);
+    }
+
+    /**
+     * Waits for everything submitted to come through.
+     *
+     * @return A sampler with a fingerprint for every image that could be read (one per set of identical files), in
+     * no particular order
+     */
+    public List<Sampler> finish() {
+        identify.finish();
+        identify.awaitCompletion();
+
+        return samplers;
+    }
+
+    /**
+     * @return Groups of two or more files with identical contents, the one that went through the stages first.
+     * Complete once {@link #finish()} returned.
+     */
+    public List<List<File>> getExactDuplicates() {
+        List<List<File>> exactDuplicates = new ArrayList<>();
+        for (List<File> identicalFiles : filesByHash.values()) {
+            if (identicalFiles.size() > 1) {
+                exactDuplicates.add(identicalFiles);
+            }
+        }
+        return exactDuplicates;
+    }
+
+    // ========= STAGES ===============================================================================================
+
+    private void identify(File file, Consumer<Ingest> output) throws IOException {
+        Long knownHash = exactDuplicateDetector.getKnownContentKey(file);
+        if ((knownHash != null) && hashCacheManager.isCached(knownHash, fingerprintConfig)) {
+            // unchanged since it was fingerprinted
+            Ingest ingest = new Ingest(file, null);
+            ingest.hash = knownHash;
+            ingest.sampler = loadCachedSampler(file, knownHash);
+            output.accept(ingest);
+            return;
+        }
+
+        ImageHeader image = ImageHeader.probe(file);
+        if (image == null) {
+            // not an image we can decode
+            feedbackProxy.incrementProgressBar();
+            return;
+        }
+
+        output.accept(new Ingest(file, image));
+    }
+
+    private void hash(Ingest ingest, Consumer<Ingest> output) {
+        File picture = ingest.file;
+        try {
+            // cache hits too, they could be copies of a file found since
+            ingest.hash = exactDuplicateDetector.getContentKey(picture);
+
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't load file " + picture.getName(), e);
+        }
+        long hash = ingest.hash;
+        if (ingest.sampler != null) {
+            ingest.sampler.setFileMdHash(hash);
+        }
+
+        // Only the first of a set of identical files goes on, the others get copies of its sampler afterwards
+        boolean[] first = new boolean[1];
+        filesByHash.compute(hash, (key, files) -> {
+            if (files == null) {
+                files = new ArrayList<>();
+                first[0] = true;
+            }
+            files.add(picture);
+            return files;
+        });
+        if (!first[0]) {
+            return;
+        }
+
+        if (ingest.sampler == null) {
+            if (hashCacheManager.isCached(hash, fingerprintConfig)) {
+                // Cache hit, for a file that was moved or touched since (only found if it was keyed by its full hash)
+                ingest.sampler = loadCachedSampler(picture, hash);
+
+            } else {
+                System.out.println("Cache miss for " + picture.getName() + ", calculating fingerprint.");
+            }
+        }
+
+        output.accept(ingest);
+    }
+
+    private void decode(Ingest ingest, Consumer<Ingest> output) throws InterruptedException {
+        if (ingest.sampler == null) {
+            // held until the fingerprint stage is done with the raster
+            ingest.reservedBytes = decodeBudget.reserve(getDecodeCost(ingest.image));
+
+            Sampler sampler;
+            try {
+                sampler = Sampler.decode(ingest.image, fingerprintConfig);
+
+            } catch (RuntimeException | Error e) {
+                decodeBudget.release(ingest.reservedBytes);
+                throw e;
+            }
+
+            if (!sampler.isDecoded()) {
+                // not an image we can read (Sampler already said so), nothing to fingerprint
+                decodeBudget.release(ingest.reservedBytes);
+                feedbackProxy.incrementProgressBar();
+                return;
+            }
+
+            sampler.setFileMdHash(ingest.hash);
+            ingest.sampler = sampler;
+        }
+
+        output.accept(ingest);
+    }
+
+    private void fingerprint(Ingest ingest, Consumer<Sampler> output) {
+        Sampler sampler = ingest.sampler;
+
+        if (!sampler.fingerprintReady()) {
+            try {
+                sampler.getFingerprint(fingerprintConfig);
+                sampler.clearRaster();
+
+            } finally {
+                decodeBudget.release(ingest.reservedBytes);
+            }
+        }
+
+        output.accept(sampler);
+    }
+
+    private void emit(Sampler sampler, Consumer<Void> output) {
+        hashCacheManager.cache(sampler);
+        samplers.add(sampler);
+        feedbackProxy.incrementProgressBar();
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    private Sampler loadCachedSampler(File picture, long hash) {
+        Sampler loadedFromCache = hashCacheManager.loadCachedSampler(hash, fingerprintConfig);
+
+        // Make sure we associate the new file name with the cached fingerprint;
+        // file names change, hashes tend not to unless the file was modified.
+        loadedFromCache.setFile(picture);
+        loadedFromCache.setFileMdHash(hash);
+        return loadedFromCache;
+    }
+
+    // Any reservation has been released by the stage that failed
+    private void skip(File file, Exception e) {
+        System.out.println("Skipping " + file.getName() + ", it failed to load: " + e);
+        e.printStackTrace();
+        feedbackProxy.incrementProgressBar();
+    }
+
+    // Heap an image holds from decoding until its raster is cleared: the raster itself, and for exact fingerprints the
+    // summed-area table built from it. Images decoded in strips only ever hold the strips being decoded.
+    private long getDecodeCost(ImageHeader image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (ImageDecoder.isDecodedInStrips(width, height, fingerprintConfig)) {
+            return (long) ApplicationConfig.STRIP_DECODING_THREADS * StripDecoder.STRIP_PIXELS
+                    * RASTER_BYTES_PER_PIXEL;
+        }
+
+        int subsampling = ImageDecoder.getDecodeSubsampling(width, height, fingerprintConfig);
+        width = (width + subsampling - 1) / subsampling;
+        height = (height + subsampling - 1) / subsampling;
+
+        long bytes = (long) width * height * RASTER_BYTES_PER_PIXEL;
+        if (fingerprintConfig.isExact()) {
+            bytes += SummedAreaTable.getSizeInBytes(width, height);
+        }
+        return bytes;
+    }
+
+    // A file on its way through the stages, the sampler is set by a cache hit or by decoding
+    private static class Ingest {
+        private final File file;
+
+        // Null for a cache hit found by its stat, it's never decoded
+        private final ImageHeader image;
+
+        private long hash;
+        private Sampler sampler;
+
+        // Of the decode budget, from decoding until fingerprinting is done
+        private long reservedBytes = 0;
+
+        private Ingest(File file, ImageHeader image) {
+            this.file = file;
+            this.image = image;
+        }
+    }
+}
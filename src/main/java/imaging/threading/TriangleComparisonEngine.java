@@ -0,0 +1,190 @@
+package imaging.threading;
+
+import imaging.sampler.Fingerprint;
+import imaging.scoring.BoundedScoreHeap;
+import imaging.scoring.ComparisonScorer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compares every fingerprint against every other fingerprint, in parallel, scoring each pair once.
+ * <p>
+ * Only the upper triangle (i < j) of the comparison matrix is visited. It's split recursively into two smaller
+ * triangles and a rectangle, and rectangles into halves, down to tiles of {@link #TILE_SIZE} x TILE_SIZE fingerprints
+ * that fit in cache; fork/join work-stealing keeps all threads busy despite the uneven shape.
+ * <p>
+ * Fingerprints are identified by their index in the list passed in. For each one, only the n lowest scores are kept,
+ * and anything that can't make it into either side's n lowest is abandoned early.
+ */
+public class TriangleComparisonEngine {
+
+    // 64 fingerprints per side, a tile's fingerprints (~40KB for 10x10 grids) stay in L1/L2
+    private static final int TILE_SIZE = 64;
+
+    private final ComparisonScorer comparisonScorer;
+    private final int parallelism;
+
+    public TriangleComparisonEngine(ComparisonScorer comparisonScorer) {
+        this(comparisonScorer, Runtime.getRuntime().availableProcessors());
+    }
+
+    public TriangleComparisonEngine(ComparisonScorer comparisonScorer, int parallelism) {
+        this.comparisonScorer = comparisonScorer;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param fingerprints Fingerprints to compare, identified by index
+     * @param neighbours   How many of the lowest scores to keep per fingerprint
+     * @return Per fingerprint, the ids and scores of its lowest scoring other fingerprints
+     */
+    public List<BoundedScoreHeap> getNearestNeighbours(List<Fingerprint> fingerprints, int neighbours) {
+        Comparison comparison = new Comparison(fingerprints.toArray(new Fingerprint[0]), neighbours);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(comparison.new Triangle(0, fingerprints.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        return Arrays.asList(comparison.nearest);
+    }
+
+    // State of one getNearestNeighbours call
+    private class Comparison {
+
+        private final Fingerprint[] fingerprints;
+        private final int neighbours;
+
+        // guarded by synchronizing on the heap itself
+        private final BoundedScoreHeap[] nearest;
+
+        // Highest score still of interest per fingerprint, only ever lowered. Read without locking: a stale value
+        // is just a looser early-abandon threshold
+        private final int[] limits;
+
+        Comparison(Fingerprint[] fingerprints, int neighbours) {
+            this.fingerprints = fingerprints;
+            this.neighbours = neighbours;
+            this.nearest = new BoundedScoreHeap[fingerprints.length];
+            this.limits = new int[fingerprints.length];
+
+            for (int i = 0; i < fingerprints.length; i++) {
+                nearest[i] = new BoundedScoreHeap(neighbours);
+            }
+            Arrays.fill(limits, ComparisonScorer.NO_LIMIT);
+        }
+
+        // pairs lo <= i < j < hi (fork/join tasks are never serialized)
+        @SuppressWarnings("serial")
+        private class Triangle extends RecursiveAction {
+            private final int lo;
+            private final int hi;
+
+            Triangle(int lo, int hi) {
+                this.lo = lo;
+                this.hi = hi;
+            }
+
+            @Override
+            protected void compute() {
+                if (hi - lo <= TILE_SIZE) {
+                    compareTile(lo, hi, lo, hi);
+                    return;
+                }
+
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Triangle(lo, mid), new Triangle(mid, hi), new Rectangle(lo, mid, mid, hi));
+            }
+        }
+
+        // pairs rowLo <= i < rowHi, colLo <= j < colHi, where every row is below every column
+        @SuppressWarnings("serial")
+        private class Rectangle extends RecursiveAction {
+            private final int rowLo;
+            private final int rowHi;
+            private final int colLo;
+            private final int colHi;
+
+            Rectangle(int rowLo, int rowHi, int colLo, int colHi) {
+                this.rowLo = rowLo;
+                this.rowHi = rowHi;
+                this.colLo = colLo;
+                this.colHi = colHi;
+            }
+
+            @Override
+            protected void compute() {
+                if ((rowHi - rowLo <= TILE_SIZE) && (colHi - colLo <= TILE_SIZE)) {
+                    compareTile(rowLo, rowHi, colLo, colHi);
+
+                } else if (rowHi - rowLo >= colHi - colLo) {
+                    int mid = (rowLo + rowHi) >>> 1;
+                    invokeAll(new Rectangle(rowLo, mid, colLo, colHi), new Rectangle(mid, rowHi, colLo, colHi));
+
+                } else {
+                    int mid = (colLo + colHi) >>> 1;
+                    invokeAll(new Rectangle(rowLo, rowHi, colLo, mid), new Rectangle(rowLo, rowHi, mid, colHi));
+                }
+            }
+        }
+
+        // Scores collect in tile-local heaps first, and are merged into the shared ones once per tile
+        private void compareTile(int rowLo, int rowHi, int colLo, int colHi) {
+            boolean diagonal = (rowLo == colLo);
+
+            BoundedScoreHeap[] rowNearest = newLocalHeaps(rowHi - rowLo);
+            BoundedScoreHeap[] colNearest = diagonal ? rowNearest : newLocalHeaps(colHi - colLo);
+
+            for (int i = rowLo; i < rowHi; i++) {
+                BoundedScoreHeap left = rowNearest[i - rowLo];
+
+                for (int j = Math.max(colLo, i + 1); j < colHi; j++) {
+                    BoundedScoreHeap right = colNearest[j - colLo];
+
+                    int leftLimit = Math.min(limits[i], left.getLimit());
+                    int rightLimit = Math.min(limits[j], right.getLimit());
+
+                    int score = comparisonScorer.getComparisonScore(
+                            fingerprints[i], fingerprints[j], Math.max(leftLimit, rightLimit));
+
+                    if (score <= leftLimit) {
+                        left.offer(j, score);
+                    }
+                    if (score <= rightLimit) {
+                        right.offer(i, score);
+                    }
+                }
+            }
+
+            merge(rowLo, rowNearest);
+            if (!diagonal) {
+                merge(colLo, colNearest);
+            }
+        }
+
+        private BoundedScoreHeap[] newLocalHeaps(int size) {
+            BoundedScoreHeap[] heaps = new BoundedScoreHeap[size];
+            for (int i = 0; i < size; i++) {
+                heaps[i] = new BoundedScoreHeap(neighbours);
+            }
+            return heaps;
+        }
+
+        private void merge(int firstId, BoundedScoreHeap[] locals) {
+            for (int offset = 0; offset < locals.length; offset++) {
+                int id = firstId + offset;
+                BoundedScoreHeap shared = nearest[id];
+
+                synchronized (shared) {
+                    shared.offerAll(locals[offset]);
+                    limits[id] = Math.min(limits[id], shared.getLimit());
+                }
+            }
+        }
+    }
+}
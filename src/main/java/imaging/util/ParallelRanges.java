@@ -0,0 +1,56 @@
+package imaging.util;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Splits a range (usually the rows of an image) into chunks for the common fork/join pool, when there's enough work
+ * in it to be worth the hand-off. Smaller ranges just run on the calling thread.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ParallelRanges {
+
+    // About 4 megapixels - below this, splitting costs more than it saves
+    public static final long PARALLEL_THRESHOLD = 4_000_000;
+
+    // Chunks per worker, so a slow chunk doesn't hold the others up
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    @FunctionalInterface
+    public interface RangeSum {
+        /**
+         * @return Whatever the chunk [from, to) adds up to, 0 if there's nothing to add up
+         */
+        long sum(int from, int to);
+    }
+
+    /**
+     * @param length Size of the range [0, length)
+     * @param work   Total work over the range (e.g. pixels), decides whether to split it
+     * @return The sum of every chunk's result
+     */
+    public static long sum(int length, long work, RangeSum body) {
+        int chunks = isWorthSplitting(work)
+                ? Math.min(length, ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD) : 1;
+
+        if (chunks <= 1) {
+            return body.sum(0, length);
+        }
+
+        return IntStream.range(0, chunks).parallel()
+                .mapToLong(chunk -> body.sum(
+                        (int) ((long) chunk * length / chunks),
+                        (int) ((long) (chunk + 1) * length / chunks)))
+                .sum();
+    }
+
+    /**
+     * @return Whether {@link #sum} would split this much work, for callers with a cheaper way of doing it in one go
+     */
+    public static boolean isWorthSplitting(long work) {
+        return (work >= PARALLEL_THRESHOLD) && (ForkJoinPool.getCommonPoolParallelism() > 1);
+    }
+}
@@ -26,9 +26,9 @@ public class SimpleColor {
     }
 
     public SimpleColor(byte redByte, byte greenByte, byte blueByte) {
-        red = redByte;
-        green = greenByte;
-        blue = blueByte;
+        red = redByte & 0xFF;
+        green = greenByte & 0xFF;
+        blue = blueByte & 0xFF;
     }
 
 }
@@ -1,19 +1,50 @@
 package main;
 
+import filehandling.CacheRetentionPolicy;
+import filehandling.ContentHasher;
+import imaging.ComparisonMode;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class ApplicationConfig {
 
-    // 3 layers is the most common, valid case (RGB), 4 occurs sometimes as well (RGBA)
-    public static final ArrayList<Integer> VALID_LAYER_COUNTS = new ArrayList<>(Arrays.asList(3, 4));
-
     public static final double DIVERGENCE_TOLERANCE_FACTOR = 1.8;
 
     public static final int EXPECT_MAX_DUPLICATES = 4;
 
+    // SHA256 is slower, but resistant to deliberately colliding files
+    public static final ContentHasher.Algorithm CONTENT_HASH_ALGORITHM = ContentHasher.Algorithm.XXHASH64;
+
+    // Cached fingerprints not seen for this many days expire, and past the size limits the least recently seen
+    // ones are evicted (a 10x10 fingerprint takes a bit over 350 bytes)
+    public static final CacheRetentionPolicy CACHE_RETENTION_POLICY =
+            new CacheRetentionPolicy(2_000_000, 1024L * 1024 * 1024, 365);
+
+    // Files whose path, size, modification time and file key haven't changed since they were last hashed
+    // aren't read again, unless this is set
+    public static final boolean PARANOID_HASHING = false;
+
+    // Decode images only at the resolution the fingerprint grid needs (or use their embedded thumbnail),
+    // instead of at full size. Noise scores depend on the resolution, so don't mix caches made with and without.
+    public static final boolean SUBSAMPLED_DECODING = true;
+
+    // Images that would decode (after any subsampling) to more pixels than this are fingerprinted a strip at a time,
+    // with this many strips decoded at once - memory then stays the same however big they are
+    public static final long STRIP_DECODING_MIN_PIXELS = 64_000_000;
+    public static final int STRIP_DECODING_THREADS = 1;
+
+    // Heap that decoded images (and what fingerprinting them takes) may hold at once, decodes wait their turn above
+    // this. Half of the max heap leaves room for the cache, the index and the JVM's own.
+    public static final long DECODE_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 2;
+
+    public static final ComparisonMode COMPARISON_MODE = ComparisonMode.METRIC_INDEX;
+
+    // ComparisonMode.HASH_PREFILTER only: candidate pairs have perceptual hashes at most this many bits apart, and are
+    // duplicates when their comparison score is at most this much per block of the fingerprint grid (scores add up
+    // over the blocks). Measured on exact fingerprints of 200 generated images, on 5x5, 10x10 and 20x20 grids:
+    // half size, JPEG q50 and 2% cropped copies scored at most 5-9 per block, unrelated images at least 21-35.
+    public static final int HASH_PREFILTER_MAX_HAMMING_DISTANCE = 10;
+    public static final int HASH_PREFILTER_MAX_SCORE_PER_BLOCK = 15;
+
 }
@@ -0,0 +1,360 @@
+package main;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import imaging.ComparisonMode;
+import imaging.ComparisonSettings;
+import imaging.DuplicateWatcher;
+import imaging.ImageComparisonUtility;
+import imaging.grouping.DuplicateGroup;
+import imaging.sampler.FingerprintConfig;
+import ui.ConsoleFeedbackProxy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the comparison without a window (AWT/Swing are never initialised), for scripts and servers:
+ * <pre>
+ *     java -jar ImageComparisonUtility.jar [options] &lt;folder&gt;...
+ * </pre>
+ * Duplicate groups are written as CSV (one row per file) or JSON Lines (one object per group) once each folder is
+ * done. Everything else the comparison logs goes to stderr, so stdout only has results.
+ * <p>
+ * Exits with 0 if no duplicates were found, 1 if some were, and 2 if anything went wrong (like diff/grep do).
+ * <p>
+ * With {@code --watch} it keeps running instead (see {@link DuplicateWatcher}), writing a line per duplicate pair as
+ * soon as it's found.
+ */
+public class CommandLineRunner {
+
+    // ========= CONSTANTS ============================================================================================
+
+    public static final int EXIT_NO_DUPLICATES = 0;
+    public static final int EXIT_DUPLICATES = 1;
+    public static final int EXIT_ERROR = 2;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: ImageComparisonUtility [options] <folder>...",
+            "  -r, --recursive             also compare images in subfolders",
+            "  -w, --watch                 keep running, reporting duplicates as images are added or changed",
+            "  -t, --threads <n>           decode/fingerprint/compare threads (default: number of cores)",
+            "      --memory <MB>           heap for decoded images at once, bigger ones wait (default: half the max heap)",
+            "  -f, --format <csv|jsonl>    output format (default: csv)",
+            "  -o, --output <file>         write results to a file instead of stdout",
+            "      --accuracy <x>x<y>      fingerprint grid (default: 10x10)",
+            "      --passes <n>            random samples per grid block (default: exact block averages)",
+            "      --mode <mode>           EXHAUSTIVE, METRIC_INDEX or HASH_PREFILTER (default: "
+                    + ApplicationConfig.COMPARISON_MODE + ")",
+            "      --max-duplicates <n>    nearest images considered per image (default: "
+                    + ApplicationConfig.EXPECT_MAX_DUPLICATES + ")",
+            "      --divergence <factor>   how far below the nth nearest score a duplicate has to be (default: "
+                    + ApplicationConfig.DIVERGENCE_TOLERANCE_FACTOR + ")",
+            "      --max-hamming <bits>    HASH_PREFILTER perceptual hash distance (default: "
+                    + ApplicationConfig.HASH_PREFILTER_MAX_HAMMING_DISTANCE + ")",
+            "      --max-score <score>     HASH_PREFILTER comparison score limit (default: "
+                    + ApplicationConfig.HASH_PREFILTER_MAX_SCORE_PER_BLOCK + " per fingerprint block)",
+            "  -h, --help                  show this");
+
+    private enum OutputFormat { CSV, JSONL }
+
+    // ========= ATTRIBUTES ===========================================================================================
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<String> roots = new ArrayList<>();
+    private OutputFormat format = OutputFormat.CSV;
+    private String outputPath = null;
+    private boolean watch = false;
+    private ComparisonSettings settings;
+
+    // Every group gets a number, unique across all folders of a run
+    private int groupNumber = 0;
+
+    // ========= API ==================================================================================================
+
+    /**
+     * @return The exit code
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        // Results get stdout to themselves
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        CommandLineRunner runner = new CommandLineRunner();
+        try {
+            if (!runner.parseArguments(args)) {
+                stdout.println(USAGE);
+                return EXIT_NO_DUPLICATES;
+            }
+
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_ERROR;
+        }
+
+        return runner.watch ? runner.watch(stdout) : runner.compare(stdout);
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    // False if only the usage was asked for
+    private boolean parseArguments(String[] args) {
+        ComparisonSettings.ComparisonSettingsBuilder builder = ComparisonSettings.builder();
+        int accuracyX = 10;
+        int accuracyY = 10;
+        int passes = FingerprintConfig.EXACT;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    return false;
+                case "-r":
+                case "--recursive":
+                    builder.recursive(true);
+                    break;
+                case "-w":
+                case "--watch":
+                    watch = true;
+                    break;
+                case "-t":
+                case "--threads":
+                    builder.threads(parsePositive(arg, value(args, ++i, arg)));
+                    break;
+                case "--memory":
+                    builder.decodeMemoryBudget(parsePositive(arg, value(args, ++i, arg)) * 1024L * 1024);
+                    break;
+                case "-f":
+                case "--format":
+                    format = parseEnum(OutputFormat.class, arg, value(args, ++i, arg));
+                    break;
+                case "-o":
+                case "--output":
+                    outputPath = value(args, ++i, arg);
+                    break;
+                case "--accuracy":
+                    String[] grid = value(args, ++i, arg).toLowerCase().split("x");
+                    if (grid.length != 2) {
+                        throw new IllegalArgumentException(arg + " expects <x>x<y>, like 10x10");
+                    }
+                    accuracyX = parsePositive(arg, grid[0]);
+                    accuracyY = parsePositive(arg, grid[1]);
+                    break;
+                case "--passes":
+                    passes = parsePositive(arg, value(args, ++i, arg));
+                    break;
+                case "--mode":
+                    builder.comparisonMode(parseEnum(ComparisonMode.class, arg, value(args, ++i, arg)));
+                    break;
+                case "--max-duplicates":
+                    builder.expectMaxDuplicates(parsePositive(arg, value(args, ++i, arg)));
+                    break;
+                case "--divergence":
+                    builder.divergenceToleranceFactor(parseDouble(arg, value(args, ++i, arg)));
+                    break;
+                case "--max-hamming":
+                    builder.hashPrefilterMaxHammingDistance(parsePositive(arg, value(args, ++i, arg)));
+                    break;
+                case "--max-score":
+                    builder.hashPrefilterMaxScore(parsePositive(arg, value(args, ++i, arg)));
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                    roots.add(arg);
+            }
+        }
+
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("No folders to compare");
+        }
+
+        settings = builder.fingerprintConfig(new FingerprintConfig(accuracyX, accuracyY, passes)).build();
+        return true;
+    }
+
+    private int compare(PrintStream stdout) {
+        boolean duplicatesFound = false;
+        boolean failed = false;
+
+        try (PrintWriter out = openOutput(stdout)) {
+            if (format == OutputFormat.CSV) {
+                out.println("group,file,representative,max_score,binary_same,folder");
+            }
+
+            ImageComparisonUtility imageComparisonUtility =
+                    new ImageComparisonUtility(settings, new ConsoleFeedbackProxy(System.err));
+
+            for (String root : roots) {
+                File folder = new File(root);
+                if (!folder.isDirectory()) {
+                    System.err.println("Path: \"" + root + "\" is not a directory.");
+                    failed = true;
+                    continue;
+                }
+
+                // One bad folder shouldn't lose the results of the others
+                try {
+                    List<DuplicateGroup> duplicateGroups = imageComparisonUtility.runImageComparisonForPath(root);
+                    for (DuplicateGroup duplicateGroup : duplicateGroups) {
+                        writeGroup(out, folder, duplicateGroup);
+                    }
+                    out.flush();
+
+                    duplicatesFound |= !duplicateGroups.isEmpty();
+
+                } catch (RuntimeException e) {
+                    System.err.println("Comparing " + root + " failed: " + e.getMessage());
+                    e.printStackTrace();
+                    failed = true;
+                }
+            }
+
+            failed |= out.checkError();
+
+        } catch (IOException e) {
+            System.err.println("Couldn't write results to " + outputPath + ": " + e.getMessage());
+            return EXIT_ERROR;
+        }
+
+        if (failed) {
+            return EXIT_ERROR;
+        }
+        return duplicatesFound ? EXIT_DUPLICATES : EXIT_NO_DUPLICATES;
+    }
+
+    // Runs until the process is stopped, one line per duplicate pair as it is found
+    private int watch(PrintStream stdout) {
+        try (PrintWriter out = openOutput(stdout)) {
+            if (format == OutputFormat.CSV) {
+                out.println("file,duplicate_of,score,binary_same");
+                out.flush();
+            }
+
+            DuplicateWatcher.DuplicateListener listener = (image, duplicateOf, score, binarySame) -> {
+                if (format == OutputFormat.CSV) {
+                    out.println(csvField(image.getAbsolutePath()) + "," + csvField(duplicateOf.getAbsolutePath())
+                            + "," + score + "," + binarySame);
+
+                } else {
+                    ObjectNode line = mapper.createObjectNode();
+                    line.put("file", image.getAbsolutePath());
+                    line.put("duplicateOf", duplicateOf.getAbsolutePath());
+                    line.put("score", score);
+                    line.put("binarySame", binarySame);
+                    out.println(line.toString());
+                }
+                out.flush();
+            };
+
+            try (DuplicateWatcher duplicateWatcher = new DuplicateWatcher(roots, settings,
+                    new ConsoleFeedbackProxy(System.err), listener)) {
+                duplicateWatcher.run();
+            }
+
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Watching failed: " + e.getMessage());
+            e.printStackTrace();
+            return EXIT_ERROR;
+        }
+
+        return EXIT_NO_DUPLICATES;
+    }
+
+    private PrintWriter openOutput(PrintStream stdout) throws IOException {
+        if (outputPath == null) {
+            return new PrintWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8));
+        }
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8));
+    }
+
+    private void writeGroup(PrintWriter out, File folder, DuplicateGroup duplicateGroup) throws IOException {
+        int group = groupNumber++;
+
+        if (format == OutputFormat.CSV) {
+            for (File member : duplicateGroup.getMembers()) {
+                out.println(group + "," + csvField(member.getAbsolutePath()) + ","
+                        + (member == duplicateGroup.getRepresentative()) + "," + duplicateGroup.getMaxScore() + ","
+                        + duplicateGroup.isBinarySame() + "," + csvField(folder.getAbsolutePath()));
+            }
+
+        } else {
+            ObjectNode line = mapper.createObjectNode();
+            line.put("group", group);
+            line.put("folder", folder.getAbsolutePath());
+            line.put("representative", duplicateGroup.getRepresentative().getAbsolutePath());
+
+            ArrayNode members = line.putArray("files");
+            for (File member : duplicateGroup.getMembers()) {
+                members.add(member.getAbsolutePath());
+            }
+
+            line.put("maxScore", duplicateGroup.getMaxScore());
+            line.put("binarySame", duplicateGroup.isBinarySame());
+
+            out.println(mapper.writeValueAsString(line));
+        }
+    }
+
+    // RFC 4180: quoted if it has a comma, quote or line break, with quotes doubled
+    private static String csvField(String value) {
+        if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0)
+                && (value.indexOf('\n') < 0) && (value.indexOf('\r') < 0)) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+
+        } catch (NumberFormatException e) {
+            // same message as for anything below 1
+        }
+        throw new IllegalArgumentException(option + " expects a positive whole number, not \"" + value + "\"");
+    }
+
+    private static double parseDouble(String option, String value) {
+        try {
+            return Double.parseDouble(value);
+
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " expects a number, not \"" + value + "\"");
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String option, String value) {
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException(option + " doesn't know \"" + value + "\"");
+    }
+}
@@ -7,6 +7,11 @@ public class Main {
 
     public static void main(String[] args) {
 
+        // Any arguments mean a run without the window, see CommandLineRunner
+        if (args.length > 0) {
+            System.exit(CommandLineRunner.run(args));
+        }
+
         EventTimer eventTimerProgram = new EventTimer();
 
         ImageComparisonUtility imageComparisonUtility = new ImageComparisonUtility();
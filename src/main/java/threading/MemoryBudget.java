@@ -0,0 +1,88 @@
+package threading;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// ** Reusable **
+
+/**
+ * A weighted semaphore over some amount of memory: work reserves what it's going to hold before it starts, and waits
+ * while that would go over the budget.
+ * <p>
+ * Small reservations don't queue behind a big one - they go ahead as long as they fit beside what the longest waiting
+ * reservation needs, so it's admitted as soon as enough of the work already running has finished, and never starves.
+ * A reservation bigger than the whole budget is cut down to it, i.e. it runs alone.
+ */
+public class MemoryBudget {
+
+    private final long capacity;
+    private long reserved = 0;
+
+    // Reservations that didn't fit when they were made, longest waiting first
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+
+    /**
+     * @param capacity Bytes (or whatever unit reservations are in) that can be reserved at once
+     */
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("A memory budget needs to be positive, not " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Blocks until the amount fits in the budget.
+     *
+     * @return The amount actually reserved, to hand to {@link #release}
+     */
+    public synchronized long reserve(long amount) throws InterruptedException {
+        long request = Math.max(0, Math.min(amount, capacity));
+        if (fits(request)) {
+            reserved += request;
+            return request;
+        }
+
+        Waiter waiter = new Waiter(request);
+        waiting.addLast(waiter);
+        try {
+            while (!((waiting.peekFirst() == waiter) ? (reserved + request <= capacity) : fits(request))) {
+                wait();
+            }
+
+        } finally {
+            waiting.remove(waiter);
+            // whoever is first now may have been waiting for this one to go ahead
+            notifyAll();
+        }
+
+        reserved += request;
+        return request;
+    }
+
+    public synchronized void release(long amount) {
+        reserved -= amount;
+        notifyAll();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    // Fits beside the longest waiting reservation, if there is one
+    private boolean fits(long request) {
+        Waiter first = waiting.peekFirst();
+        return reserved + request + ((first != null) ? first.amount : 0) <= capacity;
+    }
+
+    // One per waiting thread, even if they wait for the same amount
+    private static class Waiter {
+        private final long amount;
+
+        private Waiter(long amount) {
+            this.amount = amount;
+        }
+    }
+}
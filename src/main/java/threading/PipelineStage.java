@@ -0,0 +1,204 @@
+package threading;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// ** Reusable **
+
+/**
+ * One stage of a pipeline: a bounded input queue drained by a fixed number of worker threads, which hand their
+ * results to the next stage (if any).
+ * <p>
+ * {@link #submit(Object)} blocks while the queue is full, so a slow stage holds back the ones before it instead of
+ * letting work (and memory) pile up in between. Once {@link #finish()} has been called and every worker has drained
+ * the queue, the next stage is finished in turn - {@link #awaitCompletion()} returns when the whole chain is done.
+ * <p>
+ * An item whose task throws goes to the stage's failure handler, if it has one, and the stage carries on with the next
+ * item. Without one, the first exception fails the stage once everything has been processed. Every item is processed
+ * either way, so work that holds something between stages always gets to give it back.
+ *
+ * @param <I> Items this stage consumes
+ * @param <O> Items this stage produces for the next stage
+ */
+public class PipelineStage<I, O> {
+
+    public interface Task<I, O> {
+
+        /**
+         * @param item   The item to process
+         * @param output Hands results to the next stage, may be called any number of times (blocks while it is full)
+         */
+        void process(I item, Consumer<O> output) throws Exception;
+    }
+
+    // ========= ATTRIBUTES ===========================================================================================
+
+    // Tells a worker there is nothing more to take, one is queued per worker
+    private static final Object END_OF_INPUT = new Object();
+
+    private final String name;
+    private final Task<I, O> task;
+    private final BiConsumer<I, Exception> failureHandler;
+    private final PipelineStage<O, ?> next;
+
+    private final BlockingQueue<Object> queue;
+    private final ExecutorService executor;
+    private final int threads;
+    private final AtomicInteger runningWorkers;
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    // The first exception thrown by a task that the failure handler didn't take, or the first error
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // ========= CONSTRUCTOR ==========================================================================================
+
+    /**
+     * @param name          Used to name the worker threads
+     * @param threads       Number of worker threads
+     * @param queueCapacity Number of items that can wait for a worker before {@link #submit} blocks
+     * @param task          The work done for every item
+     * @param next          The stage to pass results on to, null for the last stage
+     */
+    public PipelineStage(String name, int threads, int queueCapacity, Task<I, O> task, PipelineStage<O, ?> next) {
+        this(name, threads, queueCapacity, task, null, next);
+    }
+
+    /**
+     * @param failureHandler Called (from the worker thread) with every item whose task threw an exception, which is
+     *                       then skipped
+     */
+    public PipelineStage(String name, int threads, int queueCapacity, Task<I, O> task,
+                         BiConsumer<I, Exception> failureHandler, PipelineStage<O, ?> next) {
+        this.name = name;
+        this.task = task;
+        this.failureHandler = failureHandler;
+        this.next = next;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.runningWorkers = new AtomicInteger(threads);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + " " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < threads; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    // ========= API ==================================================================================================
+
+    /**
+     * Queues an item, blocking while the queue is full.
+     */
+    public void submit(I item) {
+        put(item);
+    }
+
+    /**
+     * Signals that nothing more will be submitted.
+     */
+    public void finish() {
+        for (int i = 0; i < threads; i++) {
+            put(END_OF_INPUT);
+        }
+    }
+
+    /**
+     * Waits until this and all following stages have processed everything.
+     *
+     * @throws RuntimeException If a task in any stage threw something its failure handler didn't take, wrapping the
+     *                          first
+     */
+    public void awaitCompletion() {
+        try {
+            completion.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for stage '" + name + "'", e);
+
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Stage '" + name + "' failed", e.getCause());
+        }
+
+        if (next != null) {
+            next.awaitCompletion();
+        }
+    }
+
+    // ========= HELPERS ==============================================================================================
+
+    @SuppressWarnings("unchecked")
+    private void work() {
+        try {
+            Object item;
+            while ((item = queue.take()) != END_OF_INPUT) {
+                try {
+                    task.process((I) item, this::emit);
+
+                } catch (InterruptedException e) {
+                    // stops this worker at the next take
+                    failure.compareAndSet(null, e);
+                    Thread.currentThread().interrupt();
+
+                } catch (Exception e) {
+                    if (failureHandler != null) {
+                        failureHandler.accept((I) item, e);
+                    } else {
+                        failure.compareAndSet(null, e);
+                    }
+
+                } catch (Error e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+
+        } finally {
+            // The last worker out passes the end on
+            if (runningWorkers.decrementAndGet() == 0) {
+                executor.shutdown();
+                if (next != null) {
+                    next.finish();
+                }
+
+                if (failure.get() != null) {
+                    completion.completeExceptionally(failure.get());
+                } else {
+                    completion.complete(null);
+                }
+            }
+        }
+    }
+
+    private void emit(O result) {
+        if (next != null) {
+            next.submit(result);
+        }
+    }
+
+    private void put(Object item) {
+        try {
+            queue.put(item);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing for stage '" + name + "'", e);
+        }
+    }
+}
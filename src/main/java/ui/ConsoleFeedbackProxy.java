@@ -0,0 +1,31 @@
+package ui;
+
+import java.io.PrintStream;
+
+// Progress for runs without a window, a line every so many files
+public class ConsoleFeedbackProxy implements UITaskFeedbackProxy {
+
+    private static final int FILES_PER_LINE = 1000;
+
+    private final PrintStream out;
+    private int progress = 0;
+
+    public ConsoleFeedbackProxy(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public synchronized void incrementProgressBar(int blocks) {
+        int before = this.progress / FILES_PER_LINE;
+        this.progress += blocks;
+
+        if (this.progress / FILES_PER_LINE > before) {
+            this.out.println("Processed " + this.progress + " files");
+        }
+    }
+
+    @Override
+    public void setText(String text) {
+        this.out.println(text);
+    }
+}
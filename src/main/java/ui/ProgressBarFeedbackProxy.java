@@ -8,15 +8,13 @@ public class ProgressBarFeedbackProxy implements UITaskFeedbackProxy {
         this.ui = ui;
     }
 
+    @Override
     public void incrementProgressBar(int blocks) {
         this.ui.incrementProgress(blocks);
     }
 
-    public void incrementProgressBar() {
-        this.ui.incrementProgress(1);
-    }
-
     //debug
+    @Override
     public void setText(String text) {
         this.ui.setTextOfUI(text);
     }
@@ -1,8 +1,8 @@
 package ui;
 
 import imaging.ImageComparisonUtility;
+import imaging.grouping.DuplicateGroup;
 import imaging.threading.FindDuplicatesWorker;
-import imaging.util.SimplePair;
 
 import javax.swing.*;
 import java.awt.*;
@@ -104,23 +104,33 @@ public class UI {
 
     public void performDuplicateSearch(String path) {
 
-        List<SimplePair<SimplePair<String, String>, Double>> duplicates = app.runImageComparisonForPath(path);
+        List<DuplicateGroup> duplicateGroups = app.runImageComparisonForPath(path);
 
-        this.appendUIText("<b>Total duplicates: " + duplicates.size() + "</b>", true);
+        int duplicates = 0;
+        for (DuplicateGroup duplicateGroup : duplicateGroups) {
+            duplicates += duplicateGroup.getMembers().size() - 1;
+        }
+
+        this.appendUIText("<b>Total duplicates: " + duplicates + " (" + duplicateGroups.size() + " groups)</b>", true);
         this.appendUIText("", true);
 
-        for (SimplePair<SimplePair<String, String>, Double> duplicate : duplicates) {
+        for (DuplicateGroup duplicateGroup : duplicateGroups) {
+
+            StringBuilder others = new StringBuilder();
+            for (File member : duplicateGroup.getMembers()) {
+                if (member != duplicateGroup.getRepresentative()) {
+                    others.append(others.length() > 0 ? ", " : "").append(member.getName());
+                }
+            }
 
-            String file1 = duplicate.getKey().getKey();
-            String file2 = duplicate.getKey().getValue();
-            Double diff = duplicate.getValue();
+            String file1 = duplicateGroup.getRepresentative().getName();
 
-            if (diff.equals(0.0)) {
-                this.appendUIText(file1 + " duplicates " + file2 +
+            if (duplicateGroup.isBinarySame()) {
+                this.appendUIText(file1 + " duplicates " + others +
                         "    <b><font color=\"red\">Binary same</font color></b>", true);
 
             } else {
-                this.appendUIText(file1 + " duplicates " + file2, true);
+                this.appendUIText(file1 + " duplicates " + others, true);
             }
         }
     }
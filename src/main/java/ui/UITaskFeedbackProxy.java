@@ -1,3 +1,13 @@
 package ui;
 
-public interface UITaskFeedbackProxy {}
\ No newline at end of file
+// How a running comparison reports its progress, one step per file
+public interface UITaskFeedbackProxy {
+
+    void incrementProgressBar(int blocks);
+
+    default void incrementProgressBar() {
+        incrementProgressBar(1);
+    }
+
+    void setText(String text);
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+package imaging.scoring.distance;
+
+import imaging.sampler.Fingerprint;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernel: works on {@link Fingerprint#getPackedWords()} like {@link SwarDistanceKernel}, but as many words
+ * at a time as the CPU's preferred vector holds.
+ * <p>
+ * Bytes are flipped into signed order, so max - min is each byte's absolute difference. Those are summed as the even
+ * and odd bytes of 16-bit lanes, and only folded into an int every {@link #CHECK_INTERVAL} vectors, which is also when
+ * the threshold is checked. Words that don't fill a vector are summed a channel at a time.
+ * <p>
+ * Only built for Java 16+, and only usable when the JVM was started with --add-modules jdk.incubator.vector, see
+ * {@link DistanceKernels}.
+ */
+public class VectorDistanceKernel implements DistanceKernel {
+
+    private static final VectorSpecies<Long> WORDS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> LANES = ShortVector.SPECIES_PREFERRED;
+
+    private static final byte SIGN_BIT = (byte) 0x80;
+
+    // A vector adds at most 2 * 255 to a 16-bit lane, so lanes can't overflow within this many vectors
+    private static final int CHECK_INTERVAL = 4;
+
+    @Override
+    public int distance(Fingerprint a, Fingerprint b, int threshold) {
+        long[] left = a.getPackedWords();
+        long[] right = b.getPackedWords();
+        int vectorEnd = WORDS.loopBound(left.length);
+
+        int differenceScore = 0;
+        int i = 0;
+        while (i < vectorEnd) {
+            int end = Math.min(i + CHECK_INTERVAL * WORDS.length(), vectorEnd);
+
+            ShortVector lanes = ShortVector.zero(LANES);
+            for (; i < end; i += WORDS.length()) {
+                ByteVector l = LongVector.fromArray(WORDS, left, i).reinterpretAsBytes()
+                        .lanewise(VectorOperators.XOR, SIGN_BIT);
+                ByteVector r = LongVector.fromArray(WORDS, right, i).reinterpretAsBytes()
+                        .lanewise(VectorOperators.XOR, SIGN_BIT);
+
+                ShortVector differences = l.max(r).sub(l.min(r)).reinterpretAsShorts();
+                lanes = lanes.add(differences.and((short) 0xFF))
+                        .add(differences.lanewise(VectorOperators.LSHR, 8));
+            }
+            differenceScore += sumLanes(lanes);
+
+            if (differenceScore > threshold) {
+                return differenceScore;
+            }
+        }
+
+        for (; i < left.length; i++) {
+            long l = left[i];
+            long r = right[i];
+            for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+                differenceScore += Math.abs((int) ((l >>> shift) & 0xFF) - (int) ((r >>> shift) & 0xFF));
+            }
+        }
+
+        return differenceScore;
+    }
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    private static int sumLanes(ShortVector lanes) {
+        IntVector pairs = lanes.reinterpretAsInts();
+        return pairs.and(0xFFFF).add(pairs.lanewise(VectorOperators.LSHR, 16)).reduceLanes(VectorOperators.ADD);
+    }
+}